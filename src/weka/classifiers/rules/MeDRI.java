@@ -3,10 +3,14 @@ package weka.classifiers.rules;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
 import weka.classifiers.rules.medri.*;
 import weka.core.*;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Created by suhel on 23/03/16.
@@ -15,7 +19,7 @@ public class MeDRI extends Classifier
         implements OptionHandler, TechnicalInformationHandler {
 
     static Logger logger = LoggerFactory.getLogger(MeDRI.class);
-    static final long serialVersionUID = 1310258885525902107L;
+    static final long serialVersionUID = 1310258885525902108L;
 
 
     /**
@@ -67,9 +71,31 @@ public class MeDRI extends Classifier
     private MedriOptions moptions = new MedriOptions();
 
     /**
-     * Holds algorithm configurations and MedriOption parameters
+     * Rules of the last build, sharing the header kept in moptions
      */
-    private List<IRule> m_rules = new ArrayList<>();
+    private RuleSet m_rules = RuleSet.EMPTY;
+
+    /**
+     * Threads inducing classes and counting lines, only alive while buildClassifier runs
+     */
+    private transient ForkJoinPool pool;
+
+    /**
+     * Index of m_rules used to classify, built on first use after each build
+     */
+    private transient volatile RuleIndex m_index;
+
+    /**
+     * m_rules compiled on first use when compileRules is set, null if they could not be
+     */
+    private transient volatile CompiledRules m_compiled;
+    private transient volatile boolean m_compileTried;
+
+    /**
+     * m_rules prepared for classifying blocks, built on first use after each build
+     */
+    private transient volatile RuleBatch m_batch;
+    private transient volatile RuleBitsets m_bitsets;
 
     /**
      * Classifies a given instance.
@@ -78,13 +104,92 @@ public class MeDRI extends Classifier
      * @return the classification
      */
     public double classifyInstance(Instance inst) {
+        RuleIndex index = m_index;
+        if (index == null) m_index = index = new RuleIndex(m_rules);
+
+        int[] cond = index.encode(inst);
+        CompiledRules compiled = compiledRules();
+        int cls = compiled != null ? compiled.classify(cond) : index.classify(cond);
+        if (cls != IRule.EMPTY)
+            return cls;
+        return Instance.missingValue();
+    }
 
-        for (IRule rule : m_rules) {
-            int cls = rule.classify(MedriUtils.toIntArray(inst));
-            if (cls != IRule.EMPTY)
-                return cls;
+    /**
+     * Classifies a block of instances at once, rule by rule over the columns of the block,
+     * in parallel with numThreads threads
+     *
+     * @return label index of each instance, -1 when no rule covers it
+     */
+    public int[] classifyInstances(Instances data) {
+        int numThreads = moptions.threadsToUse();
+        ForkJoinPool pool = numThreads > 1 ? new ForkJoinPool(numThreads) : null;
+        try {
+            return classifyInstances(data, pool);
+        } finally {
+            if (pool != null) pool.shutdown();
         }
-        return Instance.missingValue();
+    }
+
+    /**
+     * @param pool pool classifying chunks of large blocks in parallel, or null
+     */
+    public int[] classifyInstances(Instances data, ForkJoinPool pool) {
+        return classifyLines(MedriUtils.mapIdata(data), pool);
+    }
+
+    /**
+     * @param lines encoded block, in the attribute order of the training data
+     * @param pool  pool classifying chunks of large blocks in parallel, or null
+     * @return label index of each line, -1 when no rule covers it
+     */
+    public int[] classifyLines(ILines lines, ForkJoinPool pool) {
+        if (moptions.getBitsetScoring() && !lines.isWeighted()) {
+            RuleBitsets bitsets = m_bitsets;
+            if (bitsets == null) m_bitsets = bitsets = new RuleBitsets(m_rules);
+            return bitsets.classify(lines);
+        }
+        RuleBatch batch = m_batch;
+        if (batch == null) m_batch = batch = new RuleBatch(m_rules);
+        return batch.classify(lines, pool);
+    }
+
+    /**
+     * Evaluates the model on data through the batch path, same statistics as
+     * evaluation.evaluateModel(this, data)
+     */
+    public void evaluateModel(Evaluation evaluation, Instances data) throws Exception {
+        int[] labels = classifyInstances(data);
+        for (int i = 0; i < labels.length; i++) {
+            double prediction = labels[i] == IRule.EMPTY ? Instance.missingValue() : labels[i];
+            evaluation.evaluateModelOnce(prediction, data.instance(i));
+        }
+    }
+
+    private CompiledRules compiledRules() {
+        if (!moptions.getCompileRules()) return null;
+        if (!m_compileTried) compileRules();
+        return m_compiled;
+    }
+
+    /**
+     * Compiles m_rules once, however many threads classify their first instance together
+     */
+    private synchronized void compileRules() {
+        if (!m_compileTried) {
+            m_compiled = RuleSetCompiler.compile(m_rules);
+            m_compileTried = true;
+        }
+    }
+
+    private void clearScorers() {
+        m_index = null;
+        synchronized (this) {
+            m_compiled = null;
+            m_compileTried = false;
+        }
+        m_batch = null;
+        m_bitsets = null;
     }
 
     @Override
@@ -140,6 +245,84 @@ public class MeDRI extends Classifier
         return "Which algorithm to use, Prism, eDRI, or MeDRI ?";
     }
 
+    public int getNumThreads() {
+        return moptions.getNumThreads();
+    }
+
+    public void setNumThreads(int numThreads) {
+        moptions.setNumThreads(numThreads);
+    }
+
+    public String numThreadsTipText() {
+        return "Number of threads inducing the classes (Prism, eDRI) and counting the training lines, " +
+                "1 runs serially, 0 uses all processors";
+    }
+
+    public void setEngine(SelectedTag engine) {
+        moptions.setEngine(engine);
+    }
+
+    public SelectedTag getEngine() {
+        return moptions.getEngine();
+    }
+
+    public String engineTipText() {
+        return "How lines are counted, Index scans line ids, Bitmap intersects attribute-value bitsets " +
+                "(faster on dense data with few values)";
+    }
+
+    public boolean getCollapseLines() {
+        return moptions.getCollapseLines();
+    }
+
+    public void setCollapseLines(boolean b) {
+        moptions.setCollapseLines(b);
+    }
+
+    public String collapseLinesTipText() {
+        return "Learn from distinct attribute patterns weighted by their label counts, " +
+                "faster on data with many duplicated lines, same rules";
+    }
+
+    public boolean getCompileRules() {
+        return moptions.getCompileRules();
+    }
+
+    public void setCompileRules(boolean b) {
+        moptions.setCompileRules(b);
+    }
+
+    public String compileRulesTipText() {
+        return "Compile the rules into Java code when first classifying, faster scoring of large models, " +
+                "rules are interpreted when no Java compiler is available";
+    }
+
+    public boolean getBitsetScoring() {
+        return moptions.getBitsetScoring();
+    }
+
+    public void setBitsetScoring(boolean b) {
+        moptions.setBitsetScoring(b);
+    }
+
+    public String bitsetScoringTipText() {
+        return "Batch classification (classifyInstances, evaluateModel) intersects attribute-value bitsets " +
+                "rule by rule instead of filtering line ids";
+    }
+
+    public boolean getSharedScan() {
+        return moptions.getSharedScan();
+    }
+
+    public void setSharedScan(boolean b) {
+        moptions.setSharedScan(b);
+    }
+
+    public String sharedScanTipText() {
+        return "eDRI only, grow one rule per class at the same time so every pass over the lines " +
+                "counts for all classes, same rules";
+    }
+
     /**
      * Returns default capabilities of the classifier.
      *
@@ -171,12 +354,54 @@ public class MeDRI extends Classifier
         assert data.classIndex() == data.numAttributes() - 1;
 
         data.setClassIndex(data.numAttributes() - 1);
-        moptions.setMaxNumInstances(data.numInstances());
-        moptions.setInstancesCopy(data);
+        buildClassifier(EncodedDataset.of(data));
+    }
+
+    /**
+     * Generates the classifier from a nominal ARFF or CSV file (class last) without
+     * building Instances, through EncodedDataset.load: the file is mapped from its cache
+     * when the cache is up to date, else parsed (ARFF in parallel when numThreads allows it)
+     * and cached for the next builds.
+     *
+     * @param path the ARFF file, or a file ending with .csv
+     */
+    public void buildClassifier(String path) throws IOException {
+        logger.info("build classifer with data file ={}", path);
+        File file = new File(path);
+        int numThreads = moptions.threadsToUse();
+        ForkJoinPool parsers = numThreads > 1 ? new ForkJoinPool(numThreads) : null;
+        EncodedDataset data;
+        try {
+            data = EncodedDataset.load(file, parsers);
+        } finally {
+            if (parsers != null) parsers.shutdown();
+        }
+        buildClassifier(data);
+    }
+
+    /**
+     * Generates the classifier from encoded data, as given by EncodedDataset.load without parsing
+     * the ARFF file again when its cache is up to date.
+     *
+     * @param data the encoded data, class last
+     */
+    public void buildClassifier(EncodedDataset data) {
+        moptions.setMaxNumInstances(data.lines.numInstances());
+        moptions.setInstancesCopy(data.header);
 
         moptions.resetScannedInstances(0);
 
-        String algorithm = moptions.getAlgorithm().toString().toLowerCase();
+        int numThreads = moptions.threadsToUse();
+        pool = numThreads > 1 ? new ForkJoinPool(numThreads) : null;
+        try {
+            buildClassifier(data, moptions.getAlgorithm().toString().toLowerCase());
+        } finally {
+            if (pool != null) pool.shutdown();
+            pool = null;
+        }
+    }
+
+    private void buildClassifier(EncodedDataset data, String algorithm) {
         switch (algorithm) {
             case "prism":
                 buildClassifierPrism(data, moptions.getAddDefaultRule());
@@ -185,7 +410,7 @@ public class MeDRI extends Classifier
             case "edri": {
                 double minSupport = moptions.getMinFrequency();
                 double minConfidence = moptions.getMinRuleStrength();
-                int minFreq = (int) Math.ceil(minSupport * data.numInstances()+ 1.e-6);
+                int minFreq = (int) Math.ceil(minSupport * data.lines.numInstances()+ 1.e-6);
                 logger.debug("minFreq used = {}", minFreq);
                 buildClassifierEDRI(data, minFreq, minConfidence, moptions.getAddDefaultRule());
             }
@@ -194,7 +419,7 @@ public class MeDRI extends Classifier
             case "medri": {
                 double minSupport = moptions.getMinFrequency();
                 double minConfidence = moptions.getMinRuleStrength();
-                int minFreq = (int) Math.ceil(minSupport * data.numInstances() + 1.e-6);
+                int minFreq = (int) Math.ceil(minSupport * data.lines.numInstances() + 1.e-6);
                 logger.debug("minFreq used = {}", minFreq);
                 buildClassifierMeDRI(data, minFreq, minConfidence, moptions.getAddDefaultRule());
 
@@ -210,58 +435,102 @@ public class MeDRI extends Classifier
 
 
 
+    /**
+     * @return line set of the engine selected in the options
+     */
+    private LineSet newLineSet(ILines lineData) {
+        if (moptions.useBitmapEngine()) {
+            if (!lineData.isWeighted())
+                return new BitmapLineSet(lineData);
+            logger.warn("Bitmap engine can not use collapsed lines, Index engine is used instead");
+        }
+        return new IndexLineSet(lineData, pool);
+    }
+
+    private ILines collapseLines(ILines lineData) {
+        if (!moptions.getCollapseLines())
+            return lineData;
+        return MedriUtils.collapseLines(lineData);
+    }
+
     public MeDRIResult buildClassifierMeDRI(Instances data, int minSupport, double minConfidence, boolean addDefaultRule) {
-        int[] iattrs = MedriUtils.mapAttributes(data);
+        return buildClassifierMeDRI(EncodedDataset.of(data), minSupport, minConfidence, addDefaultRule);
+    }
+
+    public MeDRIResult buildClassifierMeDRI(EncodedDataset data, int minSupport, double minConfidence, boolean addDefaultRule) {
+        int[] iattrs = data.lines.iattrs;
 
-        Pair<Collection<int[]>, int[]> linesLabels = MedriUtils.mapIdataAndLabels(data);
-        Collection<int[]> lineData = linesLabels.key;
-        int[] labelsCount = linesLabels.value;
+        ILines lineData = collapseLines(data.lines);
+        int[] labelsCount = data.labelsCount;
 
-        logger.trace("original lines size ={}", lineData.size());
+        logger.trace("original lines size ={}", lineData.numLines());
        MeDRIResult result = MedriUtils.buildClassifierMeDRI(iattrs, labelsCount,
-                lineData, minSupport, minConfidence, addDefaultRule);
+                newLineSet(lineData), minSupport, minConfidence, addDefaultRule);
 
-        m_rules.clear();
-        m_rules.addAll(result.getRules());
+        m_rules = RuleSet.ofIRules(result.getRules(), moptions.getInstances());
+        clearScorers();
         moptions.resetScannedInstances(result.getScannedInstances());
         return result;
     }
 
     public MeDRIResult buildClassifierEDRI(Instances data, int minSupport, double minConfidence, boolean addDefaultRule) {
-        int[] iattrs = MedriUtils.mapAttributes(data);
+        return buildClassifierEDRI(EncodedDataset.of(data), minSupport, minConfidence, addDefaultRule);
+    }
+
+    public MeDRIResult buildClassifierEDRI(EncodedDataset data, int minSupport, double minConfidence, boolean addDefaultRule) {
+        int[] iattrs = data.lines.iattrs;
 
-        Pair<Collection<int[]>, int[]> linesLabels = MedriUtils.mapIdataAndLabels(data);
-        Collection<int[]> lineData = linesLabels.key;
-        int[] labelsCount = linesLabels.value;
+        ILines lineData = collapseLines(data.lines);
+        int[] labelsCount = data.labelsCount;
 
-        logger.trace("original lines size ={}", lineData.size());
-        MeDRIResult result = MedriUtils.buildClassifierEDRI(iattrs, labelsCount,
-                lineData, minSupport, minConfidence, addDefaultRule);
+        logger.trace("original lines size ={}", lineData.numLines());
+        MeDRIResult result = moptions.getSharedScan() ?
+                SharedScanEDRI.buildClassifierEDRI(iattrs, labelsCount,
+                        lineData, minSupport, minConfidence, addDefaultRule) :
+                MedriUtils.buildClassifierEDRI(iattrs, labelsCount,
+                        newLineSet(lineData), minSupport, minConfidence, addDefaultRule, pool);
 
-        m_rules.clear();
-        m_rules.addAll(result.getRules());
+        m_rules = RuleSet.ofIRules(result.getRules(), moptions.getInstances());
+        clearScorers();
         moptions.resetScannedInstances(result.getScannedInstances());
         return result;
     }
 
 
     public MeDRIResult buildClassifierPrism(Instances data, boolean addDefaultRule) {
+        return buildClassifierPrism(EncodedDataset.of(data), addDefaultRule);
+    }
 
-        int[] iattrs = MedriUtils.mapAttributes(data);
+    public MeDRIResult buildClassifierPrism(EncodedDataset data, boolean addDefaultRule) {
+        int[] iattrs = data.lines.iattrs;
 
-        Pair<Collection<int[]>, int[]> linesLabels = MedriUtils.mapIdataAndLabels(data);
-        Collection<int[]> lineData = linesLabels.key;
-        int[] labelsCount = linesLabels.value;
+        ILines lineData = collapseLines(data.lines);
+        int[] labelsCount = data.labelsCount;
 
-        logger.trace("original lines size ={}", lineData.size());
-        MeDRIResult result = MedriUtils.buildClassifierPrism(iattrs, labelsCount, lineData, addDefaultRule);
+        logger.trace("original lines size ={}", lineData.numLines());
+        MeDRIResult result = MedriUtils.buildClassifierPrism(iattrs, labelsCount, newLineSet(lineData),
+                addDefaultRule, pool);
 
-        m_rules.clear();
-        m_rules.addAll(result.getRules());
+        m_rules = RuleSet.ofIRules(result.getRules(), moptions.getInstances());
+        clearScorers();
         moptions.resetScannedInstances(result.getScannedInstances());
         return result;
     }
 
+    /**
+     * @return rules of the last build, in classification order
+     */
+    public RuleSet getRules() {
+        return m_rules;
+    }
+
+    /**
+     * Writes the rules of the last build in the binary format of MappedRuleSet
+     */
+    public void writeRules(File file) throws IOException {
+        MappedRuleSet.write(m_rules, file);
+    }
+
     public String toString(Instances data, int maxDigit) {
         if (m_rules == null) {
             return getAlgorithm() + "No model built yet.";
@@ -273,12 +542,11 @@ public class MeDRI extends Classifier
         if (!getAlgorithm().toString().toUpperCase().equals("PRISM")) {
             sb.append(String.format(" min freq = %.4f, min strength = %.2f", getMinFrequency(), getMinRuleStrength()));
         }
-        sb.append("\nNumber of rules generated = " + m_rules.size());
-        String intPattern = MedriUtils.formatIntPattern(m_rules.size());
+        sb.append("\nNumber of rules generated = " + m_rules.numRules());
+        String intPattern = MedriUtils.formatIntPattern(m_rules.numRules());
         sb.append("\n" + getAlgorithm() +" rules ( frequency, strength ) \n----------\n");
-        for (int i = 0; i < m_rules.size(); i++) {
-            IRule rule = m_rules.get(i);
-            sb.append(String.format(intPattern + " - ", (i + 1)) + rule.toString(data, maxDigit) + "\n");
+        for (int i = 0; i < m_rules.numRules(); i++) {
+            sb.append(String.format(intPattern + " - ", (i + 1)) + m_rules.toString(i, data, maxDigit) + "\n");
         }
 
         sb.append(String.format("\nClassifier = %s , add default rule = %s", getAlgorithm().toString(), String.valueOf(getAddDefaultRule())));
@@ -291,8 +559,8 @@ public class MeDRI extends Classifier
 
         int numInstances = moptions.getMaxNumInstances();
         sb.append(String.format("Num of Instances of training dataset = %,d \n", numInstances));
-        Pair<Integer, Integer> pnp = getInstancesOfPerfectRules(m_rules);
-        sb.append(String.format("# Instances covered with perfect rules = %,d instances  ( %.2f %% )  \n", (int)pnp.key, (double)pnp.key/pnp.value));
+        Pair<Long, Long> pnp = getInstancesOfPerfectRules(m_rules);
+        sb.append(String.format("# Instances covered with perfect rules = %,d instances  ( %.2f %% )  \n", (long)pnp.key, (double)pnp.key/pnp.value));
 
         Pair<Integer, Integer> pnprules = perfectRules(m_rules);
         sb.append(String.format("# perfect rules = %,d , # not perfect rules = %,d \n", pnprules.key, pnprules.value));
@@ -305,26 +573,26 @@ public class MeDRI extends Classifier
         return sb.toString();
     }
 
-    private static Pair<Integer, Integer> perfectRules(List<IRule> rules) {
+    private static Pair<Integer, Integer> perfectRules(RuleSet rules) {
         int perfectRules = 0;
         int notPerfectRules = 0;
 
-        for (IRule rule : rules) {
-            if (1 - rule.getConfidence() < 1e-6) {
+        for (int r = 0; r < rules.numRules(); r++) {
+            if (1 - rules.confidence(r) < 1e-6) {
                 perfectRules++;
             }else notPerfectRules ++;
         }
         return new Pair(perfectRules, notPerfectRules);
     }
 
-    private static Pair<Integer, Integer> getInstancesOfPerfectRules(List<IRule> rules) {
-        int perfectRules = 0;
-        int totals = 0;
+    private static Pair<Long, Long> getInstancesOfPerfectRules(RuleSet rules) {
+        long perfectRules = 0;
+        long totals = 0;
 
-        for (IRule rule : rules) {
-            int correct = rule.getCorrect();
+        for (int r = 0; r < rules.numRules(); r++) {
+            int correct = rules.correct(r);
             totals += correct;
-            if (1 - rule.getConfidence() < 1e-6) {
+            if (1 - rules.confidence(r) < 1e-6) {
                 perfectRules+=  correct;
             }
         }
@@ -346,21 +614,21 @@ public class MeDRI extends Classifier
     }
 
     //all based of all number of instances, remaining default rule length = 0
-    private double getAvgWeightedRuleLength(List<IRule> rules) {
+    private double getAvgWeightedRuleLength(RuleSet rules) {
         double result = 0;
-        for (IRule rule : rules) {
+        for (int r = 0; r < rules.numRules(); r++) {
             //TODO accumulate rule rule.m_correct instead of final maxNumInstances
-            result += rule.getLenghtWeighted();
+            result += rules.lengthWeighted(r);
         }
         return result / (double) moptions.getMaxNumInstances();
     }
 
-    private double getAvgRuleLength(List<IRule> rules) {
+    private double getAvgRuleLength(RuleSet rules) {
         double result = 0;
-        for (IRule rule : rules) {
-            result += rule.getLenght();
+        for (int r = 0; r < rules.numRules(); r++) {
+            result += rules.length(r);
         }
-        return result / (double) rules.size();
+        return result / (double) rules.numRules();
     }
 
 
@@ -30,12 +30,24 @@ import weka.classifiers.rules.edri.DRIOptions;
 import weka.classifiers.rules.edri.DRIRule;
 import weka.classifiers.rules.edri.DRITest;
 import weka.classifiers.rules.edri.EDRIUtils;
+import weka.classifiers.rules.edri.InductionListener;
+import weka.classifiers.rules.edri.InstancesView;
+import weka.classifiers.rules.edri.LoggingInductionListener;
+import weka.classifiers.rules.medri.MappedRuleSet;
+import weka.classifiers.rules.medri.MaxIndex;
+import weka.classifiers.rules.medri.MedriUtils;
+import weka.classifiers.rules.medri.RuleBatch;
+import weka.classifiers.rules.medri.RuleIndex;
+import weka.classifiers.rules.medri.RuleSet;
 import weka.core.*;
 import weka.core.Capabilities.Capability;
 import weka.core.TechnicalInformation.Field;
 import weka.core.TechnicalInformation.Type;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * <!-- globalinfo-start -->
@@ -104,7 +116,7 @@ public class eDRI
     /**
      * for serialization
      */
-    static final long serialVersionUID = 1310258880025902107L;
+    static final long serialVersionUID = 1310258880025902108L;
 
     /**
      * Returns a string describing classifier
@@ -147,9 +159,68 @@ public class eDRI
     private DRIOptions pOptions = new DRIOptions();
 
     /**
-     * List ofOne all rules
+     * Rules of the last build, sharing one header
      */
-    private List<DRIRule> m_rules = new ArrayList<>();
+    private RuleSet m_rules = RuleSet.EMPTY;
+
+    /**
+     * Instances scanned by the rules of the last build
+     */
+    private long m_scannedInstances = 0;
+
+    /**
+     * Index of m_rules used to classify, built on first use after each build
+     */
+    private transient volatile RuleIndex m_index;
+
+    /**
+     * m_rules prepared for classifying blocks, built on first use after each build
+     */
+    private transient volatile RuleBatch m_batch;
+
+    /**
+     * Receives the induction events of the builds, null for none
+     */
+    private transient InductionListener m_listener = null;
+
+    public InductionListener getInductionListener() {
+        return m_listener;
+    }
+
+    /**
+     * @param listener receives the induction events of the next builds, null to send them
+     *                 only to the trace loggers when they are enabled
+     */
+    public void setInductionListener(InductionListener listener) {
+        m_listener = listener;
+    }
+
+    /**
+     * @return the attached listener, else a logging one when tracing, else null
+     */
+    private InductionListener inductionEvents() {
+        if (m_listener != null) {
+            return m_listener;
+        }
+        if (logger.isTraceEnabled() || freqsLogger.isTraceEnabled()) {
+            return new LoggingInductionListener(logger, freqsLogger);
+        }
+        return null;
+    }
+
+    /**
+     * @return rules of the last build, in classification order
+     */
+    public RuleSet getRules() {
+        return m_rules;
+    }
+
+    /**
+     * Writes the rules of the last build in the binary format of MappedRuleSet
+     */
+    public void writeRules(File file) throws IOException {
+        MappedRuleSet.write(m_rules, file);
+    }
 
     /**
      * Classifies a given instance.
@@ -158,8 +229,10 @@ public class eDRI
      * @return the classification
      */
     public double classifyInstance(Instance inst) {
+        RuleIndex index = m_index;
+        if (index == null) m_index = index = new RuleIndex(m_rules);
 
-        int result = DRIRule.classifyInst(inst, m_rules);
+        int result = index.classify(index.encode(inst));
         if (result == -1) {
             return Instance.missingValue();
         } else {
@@ -167,6 +240,24 @@ public class eDRI
         }
     }
 
+    /**
+     * Classifies a block of instances at once, rule by rule over the columns of the block
+     *
+     * @return label index of each instance, -1 when no rule covers it
+     */
+    public int[] classifyInstances(Instances data) {
+        return classifyInstances(data, null);
+    }
+
+    /**
+     * @param pool pool classifying chunks of large blocks in parallel, or null
+     */
+    public int[] classifyInstances(Instances data, ForkJoinPool pool) {
+        RuleBatch batch = m_batch;
+        if (batch == null) m_batch = batch = new RuleBatch(m_rules);
+        return batch.classify(MedriUtils.mapIdata(data), pool);
+    }
+
     @Override
     public Enumeration listOptions() {
         return pOptions.listOptions();
@@ -267,18 +358,21 @@ public class eDRI
         // remove instances with missing class
         data = new Instances(data);//defensive copy ofOne the data
         data.deleteWithMissingClass();
+        Instances header = new Instances(data, 0);
         Attribute classAtt = data.attribute(data.classIndex());
-        Instances E = null;
+        InstancesView all = InstancesView.of(data);
+        InductionListener events = inductionEvents();
+        InstancesView E = null;
         for (int cl = 0; cl < data.numClasses(); cl++) { // for each class cl
 
             logger.trace("for class = {}", classAtt.value(cl));
             logger.trace("reset E from {} to {} instances",
                     E == null ? "null" : E.numInstances(),
                     data.numInstances());
-            E = data; // initialize E to the instance set
+            E = all; // initialize E to the instance set
 
             while (contains(E, cl)) { // while E contains examples in class cl
-                Pair<DRIRule, Instances> result = ruleInstancesEDRI(cl, E, minFreqs, minConfidence);
+                Pair<DRIRule, InstancesView> result = ruleInstancesEDRI(cl, E, header, minFreqs, minConfidence, events);
                 if (result == null) {
                     break; // stop adding rules for current class. break out to the new class
                 }
@@ -290,7 +384,7 @@ public class eDRI
 
         if (getAddDefaultRule()) {
 
-            DRIRule defaultRule = getDefaultRule(E);
+            DRIRule defaultRule = getDefaultRule(E, header);
             if (defaultRule != null) {
                 rules.add(defaultRule);
                 logger.trace("add defaul rule {}", defaultRule.toStr());
@@ -298,8 +392,7 @@ public class eDRI
         }
         //TODO add default class
         logger.trace("no more classes found");
-        m_rules.clear();
-        m_rules.addAll(rules);
+        setRules(rules, header);
     }
 
     /**
@@ -309,11 +402,16 @@ public class eDRI
      * @return: DRIRule ofOne the majority class
      */
     public DRIRule getDefaultRule(Instances data) {
-        int classIndex = data.classIndex();
-        int[] freqs = new int[data.attribute(classIndex).numValues()];
-        for (int i = 0; i < data.numInstances(); i++) {
-            int cls = (int) data.instance(i).value(classIndex);
-            freqs[cls]++;
+        return getDefaultRule(InstancesView.of(data), new Instances(data, 0));
+    }
+
+    /**
+     * @param header empty copy of the training data, shared by the rule
+     */
+    private DRIRule getDefaultRule(InstancesView data, Instances header) {
+        int[] freqs = new int[data.numClasses()];
+        for (int cls = 0; cls < freqs.length; cls++) {
+            freqs[cls] = data.classCount(cls);
         }
 
         int maxVal = Integer.MIN_VALUE;
@@ -324,7 +422,7 @@ public class eDRI
                 maxIndex = i;
             }
         }
-        return new DRIRule(data, maxIndex);
+        return DRIRule.sharingHeader(header, maxIndex);
     }
 
     /**
@@ -362,55 +460,67 @@ public class eDRI
         // remove instances with missing class
         data = new Instances(data);
         data.deleteWithMissingClass();
+        Instances header = new Instances(data, 0);
         Attribute classAtt = data.attribute(data.classIndex());
+        InstancesView all = InstancesView.of(data);
+        InductionListener events = inductionEvents();
         for (int cl = 0; cl < data.numClasses(); cl++) { // for each class cl
 
             logger.trace("for class = {}", classAtt.value(cl));
             freqsLogger.trace("for class = {}", classAtt.value(cl));
 
-            Instances E = data; // initialize E to the instance set
+            InstancesView E = all; // initialize E to the instance set
             logger.trace("reset E from {} to {} instances",
                     E == null ? "null" : E.numInstances(),
                     data.numInstances());
 
             while (contains(E, cl)) { // while E contains examples in class cl
-                Pair<DRIRule, Instances> result = ruleInstancesPrism(cl, E);
+                Pair<DRIRule, InstancesView> result = ruleInstancesPrism(cl, E, header, events);
                 rules.add(result.key);
                 E = result.value;
             }
             logger.trace("\t switching to next class with E contains {} instances\n", E.numInstances());
         }
         logger.trace("no more classes found");
-        m_rules.clear();
-        m_rules.addAll(rules);
+        setRules(rules, header);
     }
 
 
-    private long getScannedInstances() {
+    private void setRules(List<DRIRule> rules, Instances header) {
         long scanned = 0;
-        for (DRIRule rule : m_rules) {
+        for (DRIRule rule : rules) {
             scanned += rule.getScannedInstances();
         }
-        return scanned;
+        m_rules = RuleSet.ofDRIRules(rules, header);
+        m_scannedInstances = scanned;
+        m_index = null;
+        m_batch = null;
+    }
+
+    private long getScannedInstances() {
+        return m_scannedInstances;
     }
 
     ;
 
-    private Pair<DRIRule, Instances> ruleInstancesEDRI(int cl, Instances e, int minFreqs, double minConfidence) throws Exception {
+    private Pair<DRIRule, InstancesView> ruleInstancesEDRI(int cl, InstancesView e, Instances header, int minFreqs, double minConfidence,
+                                                           InductionListener events) throws Exception {
 
         if (e.numInstances() < minFreqs) {
             logger.trace("remaining instances = {} < {}",
                     e.numInstances(), minFreqs);
             return null;
         }
-        Attribute classAtt = e.attribute(e.classIndex());
+        Attribute classAtt = header.classAttribute();
 
         logger.trace("\tE contains {} class\n", classAtt.value(cl));
-        DRIRule rule = new DRIRule(e, cl);
+        DRIRule rule = DRIRule.sharingHeader(header, cl);
         rule.updateAndGetNotCovered(e);
 
-        logger.trace("\tNew rule {}", rule.toStr());
-        Instances ruleE = e; // examples covered by this rule
+        if (events != null) {
+            events.ruleStarted(rule);
+        }
+        InstancesView ruleE = e; // examples covered by this rule
         logger.trace("\tstart ruleE  with {} instances", ruleE.numInstances());
 
         while (rule.m_errors > 0 && rule.m_correct >= minFreqs) { // until the rule is perfect
@@ -419,8 +529,12 @@ public class eDRI
 //            int bestCorrect = 0, bestCovers = 0,
             int attUsed = 0;
 
+            // counts of every attribute not mentioned in the rule, in one pass over ruleE
+            int[][][] counts = EDRIUtils.countStep(ruleE, availableAttributes(header, rule.m_text));
+            rule.increaseScannedInstances(ruleE.numInstances());
+
             // for every attribute not mentioned in the rule
-            Enumeration enumAtt = ruleE.enumerateAttributes();
+            Enumeration enumAtt = header.enumerateAttributes();
             while (enumAtt.hasMoreElements()) {
                 Attribute attr = (Attribute) enumAtt.nextElement();
                 logger.trace("\t\t\tfor attr {} ofOne class {}", attr.name(), classAtt.value(cl));
@@ -432,32 +546,11 @@ public class eDRI
                 int M = attr.numValues();
                 int[] covers = new int[M];
                 int[] correct = new int[M];
-                String[] attrNames = new String[M];
-
-                for (int j = 0; j < M; j++) {
-                    covers[j] = correct[j] = 0;
-                    attrNames[j] = attr.value(j);
+                countsOfClass(counts[attr.index()], cl, covers, correct);
+                if (events != null) {
+                    events.candidate(rule, attr, covers, correct);
                 }
 
-                // ... calculate the counts for this class
-                Enumeration enu = ruleE.enumerateInstances();
-                while (enu.hasMoreElements()) {
-                    rule.increaseScannedInstances();
-
-                    Instance instance = (Instance) enu.nextElement();
-                    covers[(int) instance.value(attr)]++;
-                    if ((int) instance.classValue() == cl) {
-                        correct[(int) instance.value(attr)]++;
-                    }
-                }
-
-                freqsLogger.trace("\nAttr ({}), cover, correct", attr.name());
-                for (int i = 0; i < M; i++) {
-                    freqsLogger.trace("{}, {}, {}", attrNames[i], covers[i], correct[i]);
-                }
-
-                logger.trace("\t\t\t\tattr_{}  ofOne {} Covers={}, correct {}", attr.name(), attrNames, Arrays.toString(covers), Arrays.toString(correct));
-
 //                int notCovered = -1;
                 // ... for each value ofOne this attribute, see if this DRITest is better
                 int bestCorrect = 0, bestCovers = 0;
@@ -473,7 +566,7 @@ public class eDRI
                         continue;
                     }
 
-                    int diff = correct[val] * bestCovers - bestCorrect * covers[val];
+                    long diff = MaxIndex.diff(correct[val], covers[val], bestCorrect, bestCovers);
 
                     if (diff > 0 || (diff == 0 && correct[val] > bestCorrect)) {
 
@@ -493,17 +586,15 @@ public class eDRI
                 logger.trace("\t\t\tCouldn't find any sensible DRITest");
                 break;
             }
-            logger.trace("\t\t\tAdd DRITest {} to rule {}",
-                    driTest == null ? "null" : driTest.toStr(e),
-                    rule == null ? "null" : rule.toStr());
-
-            freqsLogger.trace("add item {}, to rule {}", driTest.toStr(e), rule.toStr());
+            if (events != null) {
+                events.testChosen(rule, driTest);
+            }
             rule.addTest(driTest);
 
 
             ruleE = rule.coveredBy(ruleE);
             logger.trace("\t\t\tR_{} coveredBy {}", rule.id, ruleE.numInstances());
-            if (attUsed == (e.numAttributes() - 1)) { // Used all attributes.
+            if (attUsed == (header.numAttributes() - 1)) { // Used all attributes.
                 logger.trace("\t\t\tused all the attributes, break loop");
                 break;
             }
@@ -511,26 +602,34 @@ public class eDRI
         if (rule.m_text == null) {
             return null;
         }
-        Instances result = rule.notCoveredBy(e);
-        logger.trace("\tE now contains {} instances\n", result.numInstances());
-        freqsLogger.trace("completed rule {}\n\n", rule.toStr());
+        InstancesView result = rule.notCoveredBy(e);
+        if (events != null) {
+            events.ruleFinished(rule, result.numInstances());
+        }
         return new Pair<>(rule, result);
     }
 
-    private Pair<DRIRule, Instances> ruleInstancesPrism(int cl, Instances e) throws Exception {
-        Attribute classAtt = e.attribute(e.classIndex());
+    private Pair<DRIRule, InstancesView> ruleInstancesPrism(int cl, InstancesView e, Instances header,
+                                                            InductionListener events) throws Exception {
+        Attribute classAtt = header.classAttribute();
         logger.trace("\tE contains {} class\n", classAtt.value(cl));
-        DRIRule rule = new DRIRule(e, cl);
+        DRIRule rule = DRIRule.sharingHeader(header, cl);
         rule.updateAndGetNotCovered(e);
-        logger.trace("\tNew rule {}", rule.toStr());
-        Instances ruleE = e; // examples covered by this rule
+        if (events != null) {
+            events.ruleStarted(rule);
+        }
+        InstancesView ruleE = e; // examples covered by this rule
         logger.trace("\truleE {}", ruleE.numInstances());
         while (rule.m_errors != 0) { // until the rule is perfect
             DRITest driTest = new DRITest(); // make a new DRITest
             int bestCorrect = 0, bestCovers = 0, attUsed = 0;
 
+            // counts of every attribute not mentioned in the rule, in one pass over ruleE
+            int[][][] counts = EDRIUtils.countStep(ruleE, availableAttributes(header, rule.m_text));
+            rule.increaseScannedInstances(ruleE.numInstances());
+
             // for every attribute not mentioned in the rule
-            Enumeration enumAtt = ruleE.enumerateAttributes();
+            Enumeration enumAtt = header.enumerateAttributes();
             while (enumAtt.hasMoreElements()) {
                 Attribute attr = (Attribute) enumAtt.nextElement();
                 logger.trace("\t\t\tfor attr {} ofOne class {}", attr.name(), classAtt.value(cl));
@@ -542,35 +641,14 @@ public class eDRI
                 int M = attr.numValues();
                 int[] covers = new int[M];
                 int[] correct = new int[M];
-                String[] attrNames = new String[M];
-
-                for (int j = 0; j < M; j++) {
-                    covers[j] = correct[j] = 0;
-                    attrNames[j] = attr.value(j);
-                }
-
-                // ... calculate the counts for this class
-                Enumeration enu = ruleE.enumerateInstances();
-                while (enu.hasMoreElements()) {
-                    rule.increaseScannedInstances();
-                    Instance instance = (Instance) enu.nextElement();
-                    covers[(int) instance.value(attr)]++;
-                    if ((int) instance.classValue() == cl) {
-                        correct[(int) instance.value(attr)]++;
-                    }
-                }
-
-                freqsLogger.trace("\nAttr ({}), cover, correct", attr.name());
-                for (int i = 0; i < M; i++) {
-                    freqsLogger.trace("{}, {}, {}", attrNames[i], covers[i], correct[i]);
+                countsOfClass(counts[attr.index()], cl, covers, correct);
+                if (events != null) {
+                    events.candidate(rule, attr, covers, correct);
                 }
 
-
-                logger.trace("\t\t\t\tattr_{}  ofOne {} Covers={}, correct {}", attr.name(), attrNames, Arrays.toString(covers), Arrays.toString(correct));
-
                 // ... for each value ofOne this attribute, see if this DRITest is better
                 for (int val = 0; val < M; val++) {
-                    int diff = correct[val] * bestCovers - bestCorrect * covers[val];
+                    long diff = MaxIndex.diff(correct[val], covers[val], bestCorrect, bestCovers);
 
                     // this is a ratio DRITest, correct/covers vs best correct/covers
                     if (driTest.m_attr == -1
@@ -591,27 +669,56 @@ public class eDRI
                 logger.trace("\t\t\tCouldn't find any sensible DRITest");
                 break;
             }
-            logger.trace("\t\t\tAdd DRITest {} to rule {}",
-                    driTest == null ? "null" : driTest.toStr(e),
-                    rule == null ? "null" : rule.toStr());
-
 //                    oldTest = addTest(rule, oldTest, DRITest);
-            freqsLogger.trace("add item {}, to rule {}", driTest.toStr(e), rule.toStr());
+            if (events != null) {
+                events.testChosen(rule, driTest);
+            }
             rule.addTest(driTest);
 
             ruleE = rule.coveredBy(ruleE);
             logger.trace("\t\t\tR_{} coveredBy {}", rule.id, ruleE.numInstances());
-            if (attUsed == (e.numAttributes() - 1)) { // Used all attributes.
+            if (attUsed == (header.numAttributes() - 1)) { // Used all attributes.
                 logger.trace("\t\t\tused all the attributes, break loop");
                 break;
             }
         }
-        Instances result = rule.notCoveredBy(e);
-        logger.trace("\tE now contains {} instances\n", result.numInstances());
-        freqsLogger.trace("completed rule {}\n\n", rule.toStr());
+        InstancesView result = rule.notCoveredBy(e);
+        if (events != null) {
+            events.ruleFinished(rule, result.numInstances());
+        }
         return new Pair<>(rule, result);
     }
 
+    /**
+     * @return indexes of the attributes, the class excluded, not mentioned in the tests
+     */
+    private static int[] availableAttributes(Instances data, DRITest tests) {
+        int[] result = new int[data.numAttributes()];
+        int size = 0;
+        Enumeration enumAtt = data.enumerateAttributes();
+        while (enumAtt.hasMoreElements()) {
+            Attribute attr = (Attribute) enumAtt.nextElement();
+            if (!isMentionedIn(attr, tests)) {
+                result[size++] = attr.index();
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Splits the items of one attribute of a count cube into covers and correct of class cl
+     *
+     * @param items [item][label] counts of the attribute
+     */
+    private static void countsOfClass(int[][] items, int cl, int[] covers, int[] correct) {
+        for (int val = 0; val < items.length; val++) {
+            for (int count : items[val]) {
+                covers[val] += count;
+            }
+            correct[val] = items[val][cl];
+        }
+    }
+
     /**
      * Does E contain any examples in the class C?
      *
@@ -620,15 +727,8 @@ public class eDRI
      * @return true if there are any instances ofOne class C
      * @throws Exception if something goes wrong
      */
-    private static boolean contains(Instances E, int C) throws Exception {
-
-        Enumeration enu = E.enumerateInstances();
-        while (enu.hasMoreElements()) {
-            if ((int) ((Instance) enu.nextElement()).classValue() == C) {
-                return true;
-            }
-        }
-        return false;
+    private static boolean contains(InstancesView E, int C) throws Exception {
+        return E.classCount(C) > 0;
     }
 
     /**
@@ -662,12 +762,11 @@ public class eDRI
 
         StringBuilder sb = new StringBuilder();
 
-        sb.append("Number ofOne rules generated = " + m_rules.size());
-        String intPattern = EDRIUtils.formatIntPattern(m_rules.size());
+        sb.append("Number ofOne rules generated = " + m_rules.numRules());
+        String intPattern = EDRIUtils.formatIntPattern(m_rules.numRules());
         sb.append("\nPrism rules ( frequency, confidence ) \n----------\n");
-        for (int i = 0; i < m_rules.size(); i++) {
-            DRIRule rule = m_rules.get(i);
-            sb.append(String.format(intPattern + " - ", (i + 1)) + rule.toString(maxDigits) + "\n");
+        for (int i = 0; i < m_rules.numRules(); i++) {
+            sb.append(String.format(intPattern + " - ", (i + 1)) + ruleToString(m_rules, i, maxDigits) + "\n");
         }
 
         sb.append(String.format("Avg. Weighted Rule Length = %2.2f", getAvgWeightedRuleLength(m_rules)) + "\n");
@@ -681,22 +780,46 @@ public class eDRI
         return sb.toString();
     }
 
+    /**
+     * Same text as DRIRule.toString(maxDigits)
+     */
+    private static String ruleToString(RuleSet rules, int rule, int maxDigits) {
+        String pattern = "( "+ EDRIUtils.formatIntPattern(maxDigits)+", %.2f ) ";
+        Instances header = rules.header();
+        StringBuilder text = new StringBuilder();
+        int length = rules.length(rule);
+        if (length > 0) {
+            text.append(String.format(pattern, rules.correct(rule), rules.confidence(rule)));
+            text.append("If (");
+            for (int t = 0; t < length; t++) {
+                Attribute att = header.attribute(rules.testAtt(rule, t));
+                if (t > 0) {
+                    text.append(" , ");
+                }
+                text.append(att.name() + " = " + att.value(rules.testVal(rule, t)));
+            }
+            text.append(") then ");
+        }
+        text.append(header.classAttribute().value(rules.label(rule)));
+        return text.toString();
+    }
+
     //all based ofOne all number ofOne instances, remaining default rule length = 0
-    private double getAvgWeightedRuleLength(List<DRIRule> rules) {
+    private double getAvgWeightedRuleLength(RuleSet rules) {
         double result = 0;
-        for (DRIRule rule : rules) {
+        for (int r = 0; r < rules.numRules(); r++) {
             //TODO accumulate rule rule.m_correct instead ofOne final maxNumInstances
-            result += rule.getLenghtWeighted();
+            result += rules.lengthWeighted(r);
         }
         return result / (double) pOptions.getMaxNumInstances();
     }
 
-    private double getAvgRuleLength(List<DRIRule> rules) {
+    private double getAvgRuleLength(RuleSet rules) {
         double result = 0;
-        for (DRIRule rule : rules) {
-            result += rule.getLength();
+        for (int r = 0; r < rules.numRules(); r++) {
+            result += rules.length(r);
         }
-        return result / (double) rules.size();
+        return result / (double) rules.numRules();
     }
 
 
@@ -5,8 +5,9 @@ import weka.core.Instances;
 import weka.core.RevisionHandler;
 import weka.core.RevisionUtils;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
-import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -48,6 +49,12 @@ public class DRIRule
     public int m_covers;
     public int m_correct;
 
+    /**
+     * Attributes and values of the tests from m_text, in the same order
+     */
+    private transient int[] m_attIndexes = new int[0];
+    private transient int[] m_attValues = new int[0];
+
     private long scannedInstances = 0;
 
     public long increaseScannedInstances(int a) {
@@ -71,29 +78,36 @@ public class DRIRule
          * @throws Exception if something goes wrong
          */
     public DRIRule(Instances data, int cl)  {
-        this.id = ID.incrementAndGet();
+        this(cl, new Instances(data, 0));
+    }
 
-//        m_instances = data;//TODO no need to assign data to m_instances
+    private DRIRule(int cl, Instances header) {
+        this.id = ID.incrementAndGet();
         m_classification = cl;
         m_text = null;
-//        m_next = null;
+        m_instances = header;
+    }
 
-        m_instances = new Instances(data, 0);
-//        calcNotCovered(data);
+    /**
+     * Rule sharing the header of the other rules of a model, instead of copying it.
+     *
+     * @param header empty copy of the training data, kept as is
+     * @param cl     the class
+     */
+    public static DRIRule sharingHeader(Instances header, int cl) {
+        return new DRIRule(cl, header);
     }
 
     public int updateAndGetNotCovered(Instances data) {
-        m_errors = 0;
-        //countStep not covered number
-        Enumeration enu = data.enumerateInstances();
-        while (enu.hasMoreElements()) {
-            scannedInstances++;
-            if ((int) ((Instance) enu.nextElement()).classValue() == m_classification) {
-                m_correct++;
-            } else {
-                m_errors++;
-            }
-        }
+        return updateAndGetNotCovered(InstancesView.of(data));
+    }
+
+    /**
+     * Takes the counts from the class counts of the view, without scanning it
+     */
+    public int updateAndGetNotCovered(InstancesView data) {
+        m_correct = data.classCount(m_classification);
+        m_errors = data.numInstances() - m_correct;
         m_covers = m_correct + m_errors;
         return m_errors;
     }
@@ -105,30 +119,81 @@ public class DRIRule
      * @return the classification
      */
     public int resultRule(Instance inst) {
+        int[] atts = m_attIndexes, vals = m_attValues;
+        for (int t = 0; t < atts.length; t++) {
+            if ((int) inst.value(atts[t]) != vals[t]) {
+                return -1;
+            }
+        }
+        return m_classification;
+    }
 
-        if (m_text == null || m_text.satisfies(inst)) {
-            return m_classification;
-        } else {
-            return -1;
+    /**
+     * Same as resultRule over an instance encoded once
+     *
+     * @param cond item of each attribute, see encode
+     * @return the classification, -1 if the rule does not cover cond
+     */
+    public int classify(int[] cond) {
+        int[] atts = m_attIndexes, vals = m_attValues;
+        for (int t = 0; t < atts.length; t++) {
+            if (cond[atts[t]] != vals[t]) {
+                return -1;
+            }
+        }
+        return m_classification;
+    }
+
+    /**
+     * @return item of each attribute of the instance, missing values as 0
+     */
+    public static int[] encode(Instance inst) {
+        int[] result = new int[inst.numAttributes()];
+        for (int att = 0; att < result.length; att++) {
+            result[att] = (int) inst.value(att);
         }
+        return result;
     }
 
     public void addTest(DRITest newDRITest) {
         if(m_text == null){
             m_text = newDRITest;
-            return;
+        } else {
+            DRITest tempDRITest = m_text;
+            while (tempDRITest.m_next != null)
+                tempDRITest = tempDRITest.m_next;
+            tempDRITest.m_next = newDRITest;
+        }
+        compileTests();
+    }
+
+    /**
+     * Copies the tests of m_text into the arrays resultRule and classify read, each time
+     * the rule gets a test and when it is read from a stream. Tests are not changed once
+     * added to a rule.
+     */
+    private void compileTests() {
+        int length = getLength();
+        int[] atts = new int[length], vals = new int[length];
+        int t = 0;
+        for (DRITest test = m_text; test != null; test = test.m_next, t++) {
+            atts[t] = test.m_attr;
+            vals[t] = test.m_val;
         }
+        m_attIndexes = atts;
+        m_attValues = vals;
+    }
 
-        DRITest tempDRITest = m_text;
-        while (tempDRITest.m_next != null)
-            tempDRITest = tempDRITest.m_next;
-        tempDRITest.m_next = newDRITest;
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        compileTests();
     }
 
 
     public static int classifyInst(Instance instance, List<DRIRule> rules) {
+        int[] cond = encode(instance);
         for (DRIRule rule : rules) {
-            if (rule.resultRule(instance) != -1) {
+            if (rule.classify(cond) != -1) {
                 return rule.m_classification;
             }
         }
@@ -142,18 +207,7 @@ public class DRIRule
      * @return the instances covered
      */
     public Instances coveredBy(Instances data) {
-
-        Instances result = new Instances(data, data.numInstances());
-        Enumeration enu = data.enumerateInstances();
-        while (enu.hasMoreElements()) {
-            scannedInstances++;
-            Instance i = (Instance) enu.nextElement();
-            if (resultRule(i) != -1) {
-                result.add(i);
-            }
-        }
-        result.compactify();
-        return result;
+        return coveredBy(InstancesView.of(data)).toInstances();
     }
 
     /**
@@ -163,18 +217,38 @@ public class DRIRule
      * @return the instances not covered
      */
     public Instances notCoveredBy(Instances data) {
+        return notCoveredBy(InstancesView.of(data)).toInstances();
+    }
+
+    /**
+     * @param data the rows to be checked
+     * @return view of the rows covered, over the same instances
+     */
+    public InstancesView coveredBy(InstancesView data) {
+        return select(data, true);
+    }
 
-        Instances r = new Instances(data, data.numInstances());
-        Enumeration enu = data.enumerateInstances();
-        while (enu.hasMoreElements()) {
+    /**
+     * @param data the rows to be checked
+     * @return view of the rows not covered, over the same instances
+     */
+    public InstancesView notCoveredBy(InstancesView data) {
+        return select(data, false);
+    }
+
+    private InstancesView select(InstancesView data, boolean covered) {
+        int[] rows = new int[data.numInstances()];
+        int[] classCounts = new int[data.numClasses()];
+        int size = 0;
+        for (int i = 0; i < data.numInstances(); i++) {
             scannedInstances++;
-            Instance i = (Instance) enu.nextElement();
-            if (resultRule(i) == -1) {
-                r.add(i);
+            Instance inst = data.instance(i);
+            if ((resultRule(inst) != -1) == covered) {
+                rows[size++] = data.row(i);
+                if (classCounts.length > 0) classCounts[(int) inst.classValue()]++;
             }
         }
-        r.compactify();
-        return r;
+        return data.subset(rows, size, classCounts);
     }
 
     public String toStr() {
@@ -250,7 +324,11 @@ public class DRIRule
     }
 
     public double getLenghtWeighted() {
-        return this.m_correct * this.getLength();
+        return (double) this.m_correct * this.getLength();
+    }
+
+    public int getClassification() {
+        return m_classification;
     }
 
     public int getLength() {
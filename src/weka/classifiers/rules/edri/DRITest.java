@@ -39,15 +39,12 @@ public class DRITest
      * @return true if the instance classify the test
      */
     boolean satisfies(Instance inst) {
-
-        if ((int) inst.value(m_attr) == m_val) {
-            if (m_next == null) {
-                return true;
-            } else {
-                return m_next.satisfies(inst);
+        for (DRITest test = this; test != null; test = test.m_next) {
+            if ((int) inst.value(test.m_attr) != test.m_val) {
+                return false;
             }
         }
-        return false;
+        return true;
     }
 
     /**
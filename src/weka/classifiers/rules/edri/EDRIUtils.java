@@ -70,6 +70,40 @@ public class EDRIUtils {
         return result;
     }
 
+    /**
+     * Counts the items of all the attributes in avAtts in one pass over the instances
+     *
+     * @param avAtts attributes to count, the class excluded
+     * @return count cube [att][item][label], attributes not in avAtts get empty arrays
+     */
+    public static int[][][] countStep(Instances data, int[] avAtts) {
+        return countStep(InstancesView.of(data), avAtts);
+    }
+
+    /**
+     * Same as countStep(Instances, int[]) over the rows of a view
+     */
+    public static int[][][] countStep(InstancesView view, int[] avAtts) {
+        Instances data = view.data();
+        int numClasses = data.attribute(data.classIndex()).numValues();
+        int[][][] result = new int[data.numAttributes()][][];
+        for (int a : avAtts) {
+            result[a] = new int[data.attribute(a).numValues()][numClasses];
+        }
+        for (int i = 0; i < result.length; i++) {
+            if (result[i] == null) result[i] = new int[0][0];
+        }
+
+        for (int i = 0; i < view.numInstances(); i++) {
+            Instance inst = view.instance(i);
+            int cls = (int) inst.classValue();
+            for (int a : avAtts) {
+                result[a][(int) inst.value(a)][cls]++;
+            }
+        }
+        return result;
+    }
+
     public static int bestItemForClass(int[][] items, int cls) {
         return -1;
     };
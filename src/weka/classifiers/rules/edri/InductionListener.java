@@ -0,0 +1,39 @@
+package weka.classifiers.rules.edri;
+
+import weka.core.Attribute;
+
+/**
+ * Events of the rule induction of eDRI, in the order they happen for each rule:
+ * ruleStarted, then for each refinement step candidate for every attribute not in the rule
+ * and testChosen for the test added, then ruleFinished if the rule is kept.
+ * <p>
+ * eDRI sends them only to an attached listener, or to a {@link LoggingInductionListener}
+ * when its loggers trace; otherwise no event is built.
+ */
+public interface InductionListener {
+
+    /**
+     * @param rule new rule, with the counts of the remaining instances in m_correct and m_covers
+     */
+    void ruleStarted(DRIRule rule);
+
+    /**
+     * Counts of one attribute over the instances covered by the rule
+     *
+     * @param covers  instances covered by rule and attribute = value, for each value
+     * @param correct the ones of the class of the rule, for each value
+     */
+    void candidate(DRIRule rule, Attribute attr, int[] covers, int[] correct);
+
+    /**
+     * @param rule the rule before the test is added, its header names the attributes of the test
+     * @param test the best test of the step
+     */
+    void testChosen(DRIRule rule, DRITest test);
+
+    /**
+     * @param rule      the complete rule
+     * @param remaining instances left for the next rules
+     */
+    void ruleFinished(DRIRule rule, int remaining);
+}
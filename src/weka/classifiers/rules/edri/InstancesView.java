@@ -0,0 +1,107 @@
+package weka.classifiers.rules.edri;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Rows of an Instances by index: a subset of the instances without copying them.
+ * <p>
+ * eDRI partitions its training data with DRIRule.coveredBy and notCoveredBy, which only
+ * write the indexes of the selected rows. The instances are copied into a new Instances
+ * only by toInstances().
+ * <p>
+ * Each view keeps the count of each class among its rows, counted while its rows are
+ * selected, so checking whether a class is left takes no scan.
+ */
+public class InstancesView {
+
+    /**
+     * The instances all the rows index
+     */
+    private final Instances data;
+
+    /**
+     * rows[0, size) are the indexes in data of the instances of this view, in order
+     */
+    private final int[] rows;
+    private final int size;
+
+    /**
+     * number of rows of each class
+     */
+    private final int[] classCounts;
+
+    private InstancesView(Instances data, int[] rows, int size, int[] classCounts) {
+        this.data = data;
+        this.rows = rows;
+        this.size = size;
+        this.classCounts = classCounts;
+    }
+
+    /**
+     * @return view of all the instances of data, without class counts if data has no class
+     */
+    public static InstancesView of(Instances data) {
+        int[] rows = new int[data.numInstances()];
+        int[] classCounts = new int[data.classIndex() < 0 ? 0 : data.numClasses()];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = i;
+            if (classCounts.length > 0) classCounts[(int) data.instance(i).classValue()]++;
+        }
+        return new InstancesView(data, rows, rows.length, classCounts);
+    }
+
+    /**
+     * @param rows        indexes in the data of this view, rows[0, size) are kept as is
+     * @param classCounts number of rows of each class in rows[0, size)
+     * @return view of the same data over other rows
+     */
+    InstancesView subset(int[] rows, int size, int[] classCounts) {
+        return new InstancesView(data, rows, size, classCounts);
+    }
+
+    /**
+     * @return the instances the view indexes, its attributes are the ones of the view
+     */
+    public Instances data() {
+        return data;
+    }
+
+    public int numInstances() {
+        return size;
+    }
+
+    /**
+     * @return number of rows of class cl
+     */
+    public int classCount(int cl) {
+        return classCounts[cl];
+    }
+
+    public int numClasses() {
+        return classCounts.length;
+    }
+
+    public Instance instance(int i) {
+        return data.instance(rows[i]);
+    }
+
+    /**
+     * @return index in data() of instance i of the view
+     */
+    public int row(int i) {
+        return rows[i];
+    }
+
+    /**
+     * @return the instances of the view copied into a new Instances
+     */
+    public Instances toInstances() {
+        Instances result = new Instances(data, size);
+        for (int i = 0; i < size; i++) {
+            result.add(data.instance(rows[i]));
+        }
+        result.compactify();
+        return result;
+    }
+}
@@ -0,0 +1,54 @@
+package weka.classifiers.rules.edri;
+
+import org.slf4j.Logger;
+import weka.core.Attribute;
+
+import java.util.Arrays;
+
+/**
+ * Writes the induction events as trace lines: the steps to a logger, the counts and the
+ * rules to a frequencies logger, in the format eDRI has always traced them.
+ */
+public class LoggingInductionListener implements InductionListener {
+
+    private final Logger logger;
+    private final Logger freqsLogger;
+
+    public LoggingInductionListener(Logger logger, Logger freqsLogger) {
+        this.logger = logger;
+        this.freqsLogger = freqsLogger;
+    }
+
+    @Override
+    public void ruleStarted(DRIRule rule) {
+        logger.trace("\tNew rule {}", rule.toStr());
+    }
+
+    @Override
+    public void candidate(DRIRule rule, Attribute attr, int[] covers, int[] correct) {
+        String[] attrNames = new String[covers.length];
+        for (int j = 0; j < attrNames.length; j++) {
+            attrNames[j] = attr.value(j);
+        }
+
+        freqsLogger.trace("\nAttr ({}), cover, correct", attr.name());
+        for (int i = 0; i < covers.length; i++) {
+            freqsLogger.trace("{}, {}, {}", attrNames[i], covers[i], correct[i]);
+        }
+
+        logger.trace("\t\t\t\tattr_{}  of {} Covers={}, correct {}", attr.name(), attrNames, Arrays.toString(covers), Arrays.toString(correct));
+    }
+
+    @Override
+    public void testChosen(DRIRule rule, DRITest test) {
+        String testText = test.toStr(rule.m_instances), ruleText = rule.toStr();
+        logger.trace("\t\t\tAdd DRITest {} to rule {}", testText, ruleText);
+        freqsLogger.trace("add item {}, to rule {}", testText, ruleText);
+    }
+
+    @Override
+    public void ruleFinished(DRIRule rule, int remaining) {
+        logger.trace("\tE now contains {} instances\n", remaining);
+        freqsLogger.trace("completed rule {}\n\n", rule.toStr());
+    }
+}
@@ -0,0 +1,115 @@
+package weka.classifiers.rules.medri;
+
+/**
+ * {@link LineSet} holding the remaining and entry lines as bitsets over {@link IBitmaps}.
+ * <p>
+ * Candidates are counted as popcount(entry AND item AND label) instead of scanning lines,
+ * and keep() is entry &amp;= item. Only words between the first and last non empty word
+ * of the entry are visited. Best on dense data with few items and labels.
+ */
+public class BitmapLineSet extends LineSet {
+
+    private final IBitmaps bitmaps;
+    private final long[] remaining;
+    private final long[] entry;
+    private int size, entrySize;
+    /**
+     * non empty words of the entry are in [lo, hi)
+     */
+    private int lo, hi;
+
+    public BitmapLineSet(ILines lineData) {
+        this(new IBitmaps(lineData));
+    }
+
+    private BitmapLineSet(IBitmaps bitmaps) {
+        super(bitmaps.lineData);
+        this.bitmaps = bitmaps;
+        this.remaining = bitmaps.allLines();
+        this.entry = new long[bitmaps.numWords];
+        this.size = lineData.numLines();
+        begin();
+    }
+
+    @Override
+    public LineSet fresh() {
+        return new BitmapLineSet(bitmaps);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int[] labelsCount() {
+        int[] result = new int[lineData.numLabels];
+        for (int lbl = 0; lbl < result.length; lbl++) {
+            long[] label = bitmaps.label(lbl);
+            for (int w = 0; w < remaining.length; w++)
+                result[lbl] += Long.bitCount(remaining[w] & label[w]);
+        }
+        return result;
+    }
+
+    @Override
+    public void begin() {
+        System.arraycopy(remaining, 0, entry, 0, remaining.length);
+        entrySize = size;
+        updateRange(0, entry.length);
+    }
+
+    @Override
+    public int entrySize() {
+        return entrySize;
+    }
+
+    @Override
+    public int[][][] count(int[] avAtts) {
+        int[][][] result = MedriUtils.newCountCube(lineData.iattrs, avAtts);
+        int numLabels = lineData.numLabels;
+
+        //entry lines of each label
+        long[][] entryLabels = new long[numLabels][hi - lo];
+        for (int lbl = 0; lbl < numLabels; lbl++) {
+            long[] label = bitmaps.label(lbl);
+            for (int w = lo; w < hi; w++) entryLabels[lbl][w - lo] = entry[w] & label[w];
+        }
+
+        for (int a : avAtts) {
+            for (int itm = 0; itm < result[a].length; itm++) {
+                long[] item = bitmaps.item(a, itm);
+                int[] counts = result[a][itm];
+                for (int lbl = 0; lbl < numLabels; lbl++) {
+                    long[] bits = entryLabels[lbl];
+                    int c = 0;
+                    for (int w = lo; w < hi; w++) c += Long.bitCount(bits[w - lo] & item[w]);
+                    counts[lbl] = c;
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void keep(int att, int val, int covered) {
+        long[] item = bitmaps.item(att, val);
+        for (int w = lo; w < hi; w++) entry[w] &= item[w];
+        entrySize = covered;
+        updateRange(lo, hi);
+        assert IBitmaps.cardinality(entry, lo, hi) == covered;
+    }
+
+    @Override
+    protected void removeEntry() {
+        for (int w = lo; w < hi; w++) remaining[w] &= ~entry[w];
+        size -= entrySize;
+    }
+
+    private void updateRange(int from, int to) {
+        while (from < to && entry[from] == 0) from++;
+        while (to > from && entry[to - 1] == 0) to--;
+        lo = from;
+        hi = to;
+    }
+}
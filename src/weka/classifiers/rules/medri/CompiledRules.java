@@ -0,0 +1,27 @@
+package weka.classifiers.rules.medri;
+
+/**
+ * Rule list turned into code by {@link RuleSetCompiler}
+ */
+public abstract class CompiledRules {
+
+    private int[] labels;
+
+    void setLabels(int[] labels) {
+        this.labels = labels;
+    }
+
+    /**
+     * @param cond item of each attribute
+     * @return label of the first rule covering cond, IRule.EMPTY if none does
+     */
+    public final int classify(int[] cond) {
+        int rule = firstRule(cond);
+        return rule < 0 ? IRule.EMPTY : labels[rule];
+    }
+
+    /**
+     * @return index of the first rule covering cond, -1 if none does
+     */
+    protected abstract int firstRule(int[] cond);
+}
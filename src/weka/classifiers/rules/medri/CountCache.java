@@ -0,0 +1,59 @@
+package weka.classifiers.rules.medri;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Count cubes of line sets keyed by (line set identity, available attributes), shared by
+ * the classes of one build: every class starts its first rule from all the lines, so
+ * that cube is counted once, before the classes start (MedriUtils.countRoot), and serves
+ * all of them.
+ * <p>
+ * Only cubes of untouched sets ({@link LineSet#ROOT}) are kept, other identities never
+ * come back. Cached cubes are shared and must not be modified.
+ */
+public class CountCache {
+
+    private final Map<Key, int[][][]> cubes = new ConcurrentHashMap<>();
+
+    /**
+     * @param lines  line set whose rule has just begun, entry lines = remaining lines
+     * @param avAtts available attributes
+     * @return cached count cube of lines, or null
+     */
+    public int[][][] get(LineSet lines, int[] avAtts) {
+        if (lines.id() != LineSet.ROOT) return null;
+        return cubes.get(new Key(lines.id(), avAtts));
+    }
+
+    /**
+     * Keeps the first cube put for a key, later ones are dropped
+     */
+    public void put(LineSet lines, int[] avAtts, int[][][] counts) {
+        if (lines.id() != LineSet.ROOT) return;
+        cubes.putIfAbsent(new Key(lines.id(), avAtts), counts);
+    }
+
+    private static final class Key {
+        final long id;
+        final int[] avAtts;
+
+        Key(long id, int[] avAtts) {
+            this.id = id;
+            this.avAtts = avAtts;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return id == key.id && Arrays.equals(avAtts, key.avAtts);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.valueOf(id).hashCode() + Arrays.hashCode(avAtts);
+        }
+    }
+}
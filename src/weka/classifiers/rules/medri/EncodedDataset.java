@@ -0,0 +1,240 @@
+package weka.classifiers.rules.medri;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import weka.core.Instances;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Training data encoded for MeDRI: the empty header, the {@link ILines} of the instances
+ * and the count of each label, as MedriUtils.mapIdataAndLabels gives them.
+ * <p>
+ * load() keeps the encoding of an ARFF file in a cache file next to it (file.arff.lines),
+ * keyed by the length and modification time of the ARFF and by a hash of its content. The
+ * first load parses the ARFF with {@link LinesReader} or {@link ParallelArffReader}, hashing
+ * the bytes as they are parsed, and writes the cache; the next ones map the cache and read
+ * the columns from the mapped pages without parsing anything. The content is hashed again
+ * only when the length or the time differ, so a touched or copied file keeps its cache.
+ * <p>
+ * The cache is big endian: [MAGIC, VERSION, length (8 bytes), modification time (8 bytes),
+ * hash (16 bytes), length of the header block],
+ * the header block (numLines, iattrs, labelsCount, then the attribute dictionary of
+ * MedriUtils.writeHeader), then the columns in attribute order, IColumn.width bytes per
+ * value, each starting on a multiple of 8 bytes.
+ */
+public class EncodedDataset {
+
+    static Logger logger = LoggerFactory.getLogger(EncodedDataset.class);
+
+    public static final int MAGIC = 0x4D44524C; //"MDRL"
+    public static final int VERSION = 2;
+    public static final String CACHE_SUFFIX = ".lines";
+
+    private static final int STAMP_OFFSET = 4 + 4;
+    private static final int PREFIX_BYTES = STAMP_OFFSET + 8 + 8 + 16 + 4;
+
+    public final Instances header;
+    public final ILines lines;
+    public final int[] labelsCount;
+
+    public EncodedDataset(Instances header, ILines lines, int[] labelsCount) {
+        this.header = header;
+        this.lines = lines;
+        this.labelsCount = labelsCount;
+    }
+
+    /**
+     * @param data instances whose class is the last attribute
+     */
+    public static EncodedDataset of(Instances data) {
+        Pair<ILines, int[]> linesLabels = MedriUtils.mapIdataAndLabels(data);
+        return new EncodedDataset(new Instances(data, 0), linesLabels.key, linesLabels.value);
+    }
+
+    /**
+     * @param header empty data, class last
+     * @param lines  unweighted lines of the data, whose labels are counted
+     */
+    public static EncodedDataset of(Instances header, ILines lines) {
+        int[] labelsCount = new int[lines.numLabels];
+        for (int line = 0; line < lines.numLines(); line++) labelsCount[lines.label(line)]++;
+        return new EncodedDataset(header, lines, labelsCount);
+    }
+
+    /**
+     * Encoded data of an ARFF file whose class is the last attribute, from its cache when
+     * the cache holds the current content of the file, else parsed and cached
+     */
+    public static EncodedDataset load(File arff) throws IOException {
+        return load(arff, null);
+    }
+
+    /**
+     * Same as load(arff), a file ending with .csv is read as CSV
+     *
+     * @param pool pool parsing an ARFF file in parallel on a cache miss, or null to parse it
+     *             on the calling thread
+     */
+    public static EncodedDataset load(File arff, ForkJoinPool pool) throws IOException {
+        File cache = new File(arff.getPath() + CACHE_SUFFIX);
+        //taken before parsing: a file changed meanwhile no longer matches the cache
+        long length = arff.length(), modified = arff.lastModified();
+        if (cache.isFile()) {
+            EncodedDataset result;
+            if (isStamped(cache, length, modified)) {
+                result = map(cache, null);
+            } else {
+                result = map(cache, hash(arff).asBytes());
+                if (result != null) stamp(cache, length, modified);
+            }
+            if (result != null) return result;
+            logger.info("cache {} is stale, parsing {}", cache, arff);
+        }
+
+        boolean csv = arff.getName().toLowerCase().endsWith(".csv");
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        EncodedDataset result = pool == null || csv ? LinesReader.read(arff, hasher)
+                : ParallelArffReader.read(arff, pool, hasher);
+        try {
+            result.write(cache, length, modified, hasher.hash().asBytes());
+        } catch (IOException e) {
+            logger.warn("Can not write cache {}: {}", cache, e.toString());
+        }
+        return result;
+    }
+
+    /**
+     * Writes the cache to a temporary file next to it, then renames it
+     *
+     * @param length   length of the source file
+     * @param modified modification time of the source file
+     * @param hash     hash of the content of the source file
+     */
+    public void write(File cache, long length, long modified, byte[] hash) throws IOException {
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        DataOutputStream blockOut = new DataOutputStream(block);
+        blockOut.writeInt(lines.numLines());
+        blockOut.writeInt(lines.iattrs.length);
+        for (int items : lines.iattrs) blockOut.writeInt(items);
+        blockOut.writeInt(labelsCount.length);
+        for (int count : labelsCount) blockOut.writeInt(count);
+        MedriUtils.writeHeader(header, blockOut);
+        blockOut.flush();
+
+        File tmp = new File(cache.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(length);
+            out.writeLong(modified);
+            out.write(hash);
+            out.writeInt(block.size());
+            block.writeTo(out);
+            pad(out, PREFIX_BYTES + block.size());
+
+            int numLines = lines.numLines();
+            for (int att = 0; att < lines.iattrs.length; att++) {
+                IColumn column = lines.column(att);
+                int width = IColumn.width(lines.iattrs[att]);
+                for (int line = 0; line < numLines; line++) {
+                    int value = column.get(line);
+                    if (width == 1) out.writeByte(value);
+                    else if (width == 2) out.writeShort(value);
+                    else out.writeInt(value);
+                }
+                pad(out, (long) width * numLines);
+            }
+        }
+        if (!tmp.renameTo(cache)) {
+            cache.delete();
+            if (!tmp.renameTo(cache)) throw new IOException("Can not rename " + tmp + " to " + cache);
+        }
+    }
+
+    private static void pad(DataOutputStream out, long written) throws IOException {
+        for (long i = written; i % 8 != 0; i++) out.writeByte(0);
+    }
+
+    private static long padded(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    /**
+     * @return whether cache was written for a source of this length and modification time
+     */
+    private static boolean isStamped(File cache, long length, long modified) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cache), PREFIX_BYTES))) {
+            return cache.length() >= PREFIX_BYTES && in.readInt() == MAGIC && in.readInt() == VERSION
+                    && in.readLong() == length && in.readLong() == modified;
+        }
+    }
+
+    /**
+     * Records the length and modification time of a source whose content matches the cache
+     */
+    private static void stamp(File cache, long length, long modified) {
+        try (RandomAccessFile raf = new RandomAccessFile(cache, "rw")) {
+            raf.seek(STAMP_OFFSET);
+            raf.writeLong(length);
+            raf.writeLong(modified);
+        } catch (IOException e) {
+            logger.warn("Can not update cache {}: {}", cache, e.toString());
+        }
+    }
+
+    /**
+     * @param hash expected hash, null to accept any
+     * @return data mapped from the cache, null if the cache was written for another hash or version
+     */
+    public static EncodedDataset map(File cache, byte[] hash) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(cache, "r");
+             FileChannel channel = raf.getChannel()) {
+            if (channel.size() < PREFIX_BYTES || raf.readInt() != MAGIC || raf.readInt() != VERSION)
+                return null;
+            raf.readLong(); //length and modification time of the source
+            raf.readLong();
+            byte[] cached = new byte[16];
+            raf.readFully(cached);
+            if (hash != null && !Arrays.equals(hash, cached))
+                return null;
+
+            byte[] block = new byte[raf.readInt()];
+            raf.readFully(block);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(block));
+            int numLines = in.readInt();
+            int[] iattrs = new int[in.readInt()];
+            for (int att = 0; att < iattrs.length; att++) iattrs[att] = in.readInt();
+            int[] labelsCount = new int[in.readInt()];
+            for (int lbl = 0; lbl < labelsCount.length; lbl++) labelsCount[lbl] = in.readInt();
+            Instances header = MedriUtils.readHeader(in);
+
+            //the mappings stay valid once the channel is closed
+            long offset = padded(PREFIX_BYTES + block.length);
+            IColumn[] columns = new IColumn[iattrs.length];
+            for (int att = 0; att < iattrs.length; att++) {
+                long size = (long) IColumn.width(iattrs[att]) * numLines;
+                if (offset + size > channel.size()) throw new IOException("Truncated cache " + cache);
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+                columns[att] = IColumn.of(iattrs[att], buffer);
+                offset += padded(size);
+            }
+            return new EncodedDataset(header, new ILines(iattrs, columns, numLines), labelsCount);
+        }
+    }
+
+    /**
+     * @return hash keying the cache of the content
+     */
+    public static HashCode hash(File arff) throws IOException {
+        return Files.asByteSource(arff).hash(Hashing.murmur3_128());
+    }
+}
@@ -0,0 +1,79 @@
+package weka.classifiers.rules.medri;
+
+/**
+ * Vertical layout of an {@link ILines} store: for every attribute (label included)
+ * and every item, the bitset of the lines holding that item.
+ * Bit (line &amp; 63) of word (line &gt;&gt;&gt; 6) stands for a line.
+ */
+public class IBitmaps {
+
+    public final ILines lineData;
+    public final int numWords;
+
+    /**
+     * [att][item][word]
+     */
+    private final long[][][] items;
+
+    public IBitmaps(ILines lineData) {
+        this(lineData, null);
+    }
+
+    /**
+     * @param used attributes to build the bitsets of, null for all; item() fails for the others
+     */
+    public IBitmaps(ILines lineData, boolean[] used) {
+        if (lineData.isWeighted())
+            throw new IllegalArgumentException("Bitmaps need unweighted lines");
+        this.lineData = lineData;
+        this.numWords = words(lineData.numLines());
+        int[] iattrs = lineData.iattrs;
+        items = new long[iattrs.length][][];
+        for (int att = 0; att < iattrs.length; att++) {
+            if (used != null && !used[att]) continue;
+            long[][] bits = new long[iattrs[att]][numWords];
+            IColumn column = lineData.column(att);
+            for (int line = 0; line < lineData.numLines(); line++) {
+                bits[column.get(line)][line >>> 6] |= 1L << line;
+            }
+            items[att] = bits;
+        }
+    }
+
+    public static int words(int numLines) {
+        return (numLines + 63) >>> 6;
+    }
+
+    /**
+     * @return lines where att = item, must not be modified
+     */
+    public long[] item(int att, int item) {
+        return items[att][item];
+    }
+
+    /**
+     * @return lines of the label, must not be modified
+     */
+    public long[] label(int label) {
+        return items[lineData.labelIndex][label];
+    }
+
+    /**
+     * @return bitset with all lines set
+     */
+    public long[] allLines() {
+        long[] result = new long[numWords];
+        int numLines = lineData.numLines();
+        for (int w = 0; w < result.length; w++) {
+            int bits = Math.min(64, numLines - (w << 6));
+            result[w] = bits == 64 ? -1L : (1L << bits) - 1;
+        }
+        return result;
+    }
+
+    public static int cardinality(long[] bits, int from, int to) {
+        int result = 0;
+        for (int w = from; w < to; w++) result += Long.bitCount(bits[w]);
+        return result;
+    }
+}
@@ -0,0 +1,283 @@
+package weka.classifiers.rules.medri;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * One attribute of an {@link ILines} store, holding the nominal index of every line.
+ * The narrowest primitive array able to hold the attribute cardinality is used.
+ * <p>
+ * Columns are read only; the builders of this package fill {@link Writable} columns
+ * before handing them to ILines. Columns over buffers (mapped files) are never writable.
+ */
+public abstract class IColumn {
+
+    /**
+     * @param cardinality number of nominal values of the attribute
+     * @param size        number of lines
+     * @return empty column able to hold values in [0, cardinality)
+     */
+    static Writable of(int cardinality, int size) {
+        if (cardinality <= 1 << 8) return new Bytes(new byte[size]);
+        if (cardinality <= 1 << 16) return new Shorts(new short[size]);
+        return new Ints(new int[size]);
+    }
+
+    /**
+     * @param cardinalities number of nominal values of each attribute
+     * @return one empty column of size lines per attribute
+     */
+    static Writable[] of(int[] cardinalities, int size) {
+        Writable[] result = new Writable[cardinalities.length];
+        for (int att = 0; att < result.length; att++) result[att] = of(cardinalities[att], size);
+        return result;
+    }
+
+    /**
+     * @return bytes per line of the columns holding values in [0, cardinality)
+     */
+    static int width(int cardinality) {
+        if (cardinality <= 1 << 8) return 1;
+        if (cardinality <= 1 << 16) return 2;
+        return 4;
+    }
+
+    /**
+     * @param buffer values of every line, width(cardinality) bytes each, read from its position
+     * @return read only column over the buffer
+     */
+    public static IColumn of(int cardinality, ByteBuffer buffer) {
+        switch (width(cardinality)) {
+            case 1:
+                return new BufferBytes(buffer.slice());
+            case 2:
+                return new BufferShorts(buffer.asShortBuffer());
+            default:
+                return new BufferInts(buffer.asIntBuffer());
+        }
+    }
+
+    public abstract int size();
+
+    public abstract int get(int line);
+
+    /**
+     * counts[get(line)][labels.get(line)]++ for every line in lines[from, to)
+     */
+    public void count(int[] lines, int from, int to, IColumn labels, int[][] counts) {
+        for (int i = from; i < to; i++) {
+            int line = lines[i];
+            counts[get(line)][labels.get(line)]++;
+        }
+    }
+
+
+    /**
+     * counts[get(line)][label] += weights[line * numLabels + label] for every line in lines[from, to)
+     */
+    public void countWeighted(int[] lines, int from, int to, int[] weights, int numLabels, int[][] counts) {
+        for (int i = from; i < to; i++) {
+            int line = lines[i];
+            int[] itemCounts = counts[get(line)];
+            int base = line * numLabels;
+            for (int lbl = 0; lbl < numLabels; lbl++) itemCounts[lbl] += weights[base + lbl];
+        }
+    }
+
+    /**
+     * Copies to out the lines of lines[0, n) holding value, in order; out may be lines
+     *
+     * @return number of lines copied
+     */
+    public int select(int[] lines, int n, int value, int[] out) {
+        int result = 0;
+        for (int i = 0; i < n; i++) {
+            int line = lines[i];
+            if (get(line) == value) out[result++] = line;
+        }
+        return result;
+    }
+
+
+    /**
+     * Column over a heap array, filled by the builders of this package
+     */
+    abstract static class Writable extends IColumn {
+        abstract void set(int line, int value);
+    }
+
+    static final class Bytes extends Writable {
+        final byte[] values;
+
+        Bytes(byte[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public int size() {
+            return values.length;
+        }
+
+        @Override
+        public int get(int line) {
+            return values[line] & 0xFF;
+        }
+
+        @Override
+        void set(int line, int value) {
+            values[line] = (byte) value;
+        }
+
+        @Override
+        public void count(int[] lines, int from, int to, IColumn labels, int[][] counts) {
+            final byte[] values = this.values;
+            for (int i = from; i < to; i++) {
+                int line = lines[i];
+                counts[values[line] & 0xFF][labels.get(line)]++;
+            }
+        }
+
+        @Override
+        public int select(int[] lines, int n, int value, int[] out) {
+            final byte[] values = this.values;
+            int result = 0;
+            for (int i = 0; i < n; i++) {
+                int line = lines[i];
+                if ((values[line] & 0xFF) == value) out[result++] = line;
+            }
+            return result;
+        }
+    }
+
+    static final class Shorts extends Writable {
+        final short[] values;
+
+        Shorts(short[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public int size() {
+            return values.length;
+        }
+
+        @Override
+        public int get(int line) {
+            return values[line] & 0xFFFF;
+        }
+
+        @Override
+        void set(int line, int value) {
+            values[line] = (short) value;
+        }
+
+        @Override
+        public void count(int[] lines, int from, int to, IColumn labels, int[][] counts) {
+            final short[] values = this.values;
+            for (int i = from; i < to; i++) {
+                int line = lines[i];
+                counts[values[line] & 0xFFFF][labels.get(line)]++;
+            }
+        }
+
+        @Override
+        public int select(int[] lines, int n, int value, int[] out) {
+            final short[] values = this.values;
+            int result = 0;
+            for (int i = 0; i < n; i++) {
+                int line = lines[i];
+                if ((values[line] & 0xFFFF) == value) out[result++] = line;
+            }
+            return result;
+        }
+    }
+
+    static final class Ints extends Writable {
+        final int[] values;
+
+        Ints(int[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public int size() {
+            return values.length;
+        }
+
+        @Override
+        public int get(int line) {
+            return values[line];
+        }
+
+        @Override
+        void set(int line, int value) {
+            values[line] = value;
+        }
+    }
+
+    //columns over buffers (mapped files), read only
+
+    static final class BufferBytes extends IColumn {
+        final ByteBuffer values;
+
+        BufferBytes(ByteBuffer values) {
+            this.values = values;
+        }
+
+        @Override
+        public int size() {
+            return values.limit();
+        }
+
+        @Override
+        public int get(int line) {
+            return values.get(line) & 0xFF;
+        }
+
+        @Override
+        public void count(int[] lines, int from, int to, IColumn labels, int[][] counts) {
+            final ByteBuffer values = this.values;
+            for (int i = from; i < to; i++) {
+                int line = lines[i];
+                counts[values.get(line) & 0xFF][labels.get(line)]++;
+            }
+        }
+    }
+
+    static final class BufferShorts extends IColumn {
+        final ShortBuffer values;
+
+        BufferShorts(ShortBuffer values) {
+            this.values = values;
+        }
+
+        @Override
+        public int size() {
+            return values.limit();
+        }
+
+        @Override
+        public int get(int line) {
+            return values.get(line) & 0xFFFF;
+        }
+    }
+
+    static final class BufferInts extends IColumn {
+        final IntBuffer values;
+
+        BufferInts(IntBuffer values) {
+            this.values = values;
+        }
+
+        @Override
+        public int size() {
+            return values.limit();
+        }
+
+        @Override
+        public int get(int line) {
+            return values.get(line);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package weka.classifiers.rules.medri;
+
+/**
+ * Columnar store of the training lines, one {@link IColumn} per attribute
+ * (the label attribute is the last one). Lines are addressed by their row id.
+ * <p>
+ * Weighted lines stand for distinct attribute patterns, each with a count per label
+ * (see MedriUtils.collapseLines); their label column is not used.
+ */
+public class ILines {
+
+    /**
+     * number of items for each attribute including the class attribute
+     */
+    public final int[] iattrs;
+    public final int labelIndex;
+    public final int numLabels;
+
+    private final IColumn[] columns;
+    private final int numLines;
+    /**
+     * [line * numLabels + label] count of each label, null when every line counts once
+     */
+    private final int[] weights;
+    private final int numInstances;
+
+    /**
+     * Unweighted lines over existing columns
+     *
+     * @param columns one column of numLines values per attribute, label last
+     */
+    public ILines(int[] iattrs, IColumn[] columns, int numLines) {
+        this(iattrs, columns, numLines, null);
+    }
+
+    /**
+     * @param columns one column of numLines values per attribute, label last
+     * @param weights [line * numLabels + label] count of each label of each line, or null
+     */
+    public ILines(int[] iattrs, IColumn[] columns, int numLines, int[] weights) {
+        assert columns.length == iattrs.length;
+        this.iattrs = iattrs;
+        this.labelIndex = iattrs.length - 1;
+        this.numLabels = iattrs[labelIndex];
+        this.numLines = numLines;
+        this.columns = columns;
+        this.weights = weights;
+        if (weights == null) {
+            this.numInstances = numLines;
+        } else {
+            assert weights.length == numLines * numLabels;
+            this.numInstances = MaxIndex.sum(weights);
+        }
+    }
+
+    public int numLines() {
+        return numLines;
+    }
+
+    /**
+     * @return number of training instances, the sum of the weights for weighted lines
+     */
+    public int numInstances() {
+        return numInstances;
+    }
+
+    public boolean isWeighted() {
+        return weights != null;
+    }
+
+    int[] weights() {
+        return weights;
+    }
+
+    /**
+     * Adds the label count(s) of one line to freqs
+     */
+    public void addLabelsCount(int line, int[] freqs) {
+        if (weights == null) {
+            freqs[label(line)]++;
+        } else {
+            int base = line * numLabels;
+            for (int lbl = 0; lbl < numLabels; lbl++) freqs[lbl] += weights[base + lbl];
+        }
+    }
+
+    public IColumn column(int att) {
+        return columns[att];
+    }
+
+    public IColumn labels() {
+        return columns[labelIndex];
+    }
+
+    public int get(int line, int att) {
+        return columns[att].get(line);
+    }
+
+    public int label(int line) {
+        return columns[labelIndex].get(line);
+    }
+
+    /**
+     * @return ids of all lines, in storage order
+     */
+    public int[] allLines() {
+        int[] result = new int[numLines];
+        for (int i = 0; i < result.length; i++) result[i] = i;
+        return result;
+    }
+
+    /**
+     * @return values of one line, mainly for printing
+     */
+    public int[] line(int line) {
+        int[] result = new int[columns.length];
+        for (int att = 0; att < result.length; att++) {
+            result[att] = columns[att].get(line);
+        }
+        return result;
+    }
+}
@@ -49,6 +49,20 @@ public class IRule implements Serializable{
         return attIndexes.length;
     }
 
+    /**
+     * @return copy of the tested attributes, in test order
+     */
+    public int[] getAttIndexes() {
+        return attIndexes.clone();
+    }
+
+    /**
+     * @return copy of the tested items, parallel to getAttIndexes()
+     */
+    public int[] getAttValues() {
+        return attValues.clone();
+    }
+
     private void resetCounters() {
         this.correct = 0;
         this.errors = 0;
@@ -156,9 +170,20 @@ public class IRule implements Serializable{
         return label;
     }
 
+    public int classify(ILines lineData, int line) {
+        if (attIndexes.length == 0) return label;
+
+        for (int index = 0; index < attIndexes.length; index++) {
+            if (attValues[index] != lineData.get(line, attIndexes[index])) {
+                return EMPTY;
+            }
+        }
+        return label;
+    }
+
 
     public double getLenghtWeighted() {
-        return this.correct * this.getLenght();
+        return (double) this.correct * this.getLenght();
     }
 
     @Override
@@ -0,0 +1,102 @@
+package weka.classifiers.rules.medri;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * {@link LineSet} over a vector of line ids, partitioned in place.
+ * <p>
+ * lines[from, to) are the remaining lines and lines[from, entryTo) the entry lines;
+ * keep() moves the not covered entry lines to the end of the entry range and commit()
+ * moves "from" past the covered ones, so growing a rule allocates nothing.
+ * <p>
+ * With a fork/join pool, large entries are counted in parallel chunks.
+ * Weighted lines are supported, size() then counts instances and entrySize() lines.
+ */
+public class IndexLineSet extends LineSet {
+
+    private final int[] lines;
+    private int from, to, entryTo;
+    /**
+     * number of instances of the remaining and entry lines
+     */
+    private int size, entryInstances;
+    private final ForkJoinPool pool;
+
+    /**
+     * @param pool pool used to count large entries, null to always count serially
+     */
+    public IndexLineSet(ILines lineData, ForkJoinPool pool) {
+        super(lineData);
+        this.pool = pool;
+        this.lines = lineData.allLines();
+        this.from = 0;
+        this.to = lines.length;
+        this.entryTo = to;
+        this.size = lineData.numInstances();
+        this.entryInstances = size;
+    }
+
+    @Override
+    public LineSet fresh() {
+        return new IndexLineSet(lineData, pool);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int[] labelsCount() {
+        int[] result = new int[lineData.numLabels];
+        for (int i = from; i < to; i++) {
+            lineData.addLabelsCount(lines[i], result);
+        }
+        return result;
+    }
+
+    @Override
+    public void begin() {
+        entryTo = to;
+        entryInstances = size;
+    }
+
+    @Override
+    public int entrySize() {
+        return entryTo - from;
+    }
+
+    @Override
+    public int[][][] count(int[] avAtts) {
+        return MedriUtils.countStep(lineData.iattrs, lineData, lines, from, entryTo, avAtts, pool);
+    }
+
+    @Override
+    public void keep(int att, int val, int covered) {
+        entryTo = MedriUtils.splitAndGetCovered(lineData, lines, from, entryTo, att, val);
+        entryInstances = covered;
+        assert lineData.isWeighted() || entryTo - from == covered;
+    }
+
+    /**
+     * Partitions and counts the entry lines in a single pass, unless the entry is
+     * large enough to be counted in parallel after the split.
+     */
+    @Override
+    public int[][][] keepAndCount(int att, int val, int covered, int[] avAtts) {
+        if (pool != null && covered >= 2 * MedriUtils.PARALLEL_COUNT_CHUNK)
+            return super.keepAndCount(att, val, covered, avAtts);
+
+        int[][][] result = MedriUtils.newCountCube(lineData.iattrs, avAtts);
+        entryTo = MedriUtils.splitAndCountCovered(lineData, lines, from, entryTo, att, val, avAtts, result);
+        entryInstances = covered;
+        assert lineData.isWeighted() || entryTo - from == covered;
+        return result;
+    }
+
+    @Override
+    protected void removeEntry() {
+        from = entryTo;
+        size -= entryInstances;
+    }
+}
@@ -0,0 +1,101 @@
+package weka.classifiers.rules.medri;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Working set of lines over an immutable {@link ILines}, refined in place by calcStep*.
+ * <p>
+ * It holds the remaining lines (not yet covered by accepted rules) and, while a rule grows,
+ * the entry lines covered by the rule so far:
+ * begin() starts a rule on all remaining lines, keep() narrows the entry by a new test
+ * (keepAndCount() also counts the kept lines for the next step),
+ * commit() removes the entry lines from the remaining ones once the rule is accepted.
+ * A rejected rule is simply never committed.
+ * <p>
+ * Each state of the remaining lines has an identity, id(), ROOT for sets holding all lines.
+ */
+public abstract class LineSet {
+
+    /**
+     * id of the remaining lines of a fresh set, holding all lines
+     */
+    public static final long ROOT = 0;
+    private static final AtomicLong ids = new AtomicLong(ROOT);
+
+    protected final ILines lineData;
+    private long id = ROOT;
+
+    protected LineSet(ILines lineData) {
+        this.lineData = lineData;
+    }
+
+    public ILines getLineData() {
+        return lineData;
+    }
+
+    /**
+     * @return identity of the remaining lines, changes with every commit()
+     */
+    public long id() {
+        return id;
+    }
+
+    /**
+     * @return new set, of the same kind, holding all lines of lineData
+     */
+    public abstract LineSet fresh();
+
+    /**
+     * @return number of remaining instances
+     */
+    public abstract int size();
+
+    /**
+     * @return label frequencies of the remaining lines
+     */
+    public abstract int[] labelsCount();
+
+    /**
+     * Starts a new rule, entry lines = remaining lines
+     */
+    public abstract void begin();
+
+    /**
+     * @return number of entry lines, what a pass over the entry scans
+     */
+    public abstract int entrySize();
+
+    /**
+     * @param avAtts available attributes
+     * @return count cube [att][item][label] of the entry lines
+     */
+    public abstract int[][][] count(int[] avAtts);
+
+    /**
+     * Keeps only entry lines where att = val
+     *
+     * @param covered number of instances kept, bestCover of the last MaxIndex
+     */
+    public abstract void keep(int att, int val, int covered);
+
+    /**
+     * Keeps only entry lines where att = val and counts them
+     *
+     * @param avAtts available attributes of the next step
+     * @return count cube [att][item][label] of the kept lines
+     */
+    public int[][][] keepAndCount(int att, int val, int covered, int[] avAtts) {
+        keep(att, val, covered);
+        return count(avAtts);
+    }
+
+    /**
+     * Removes the entry lines from the remaining lines
+     */
+    public final void commit() {
+        removeEntry();
+        id = ids.incrementAndGet();
+    }
+
+    protected abstract void removeEntry();
+}
@@ -0,0 +1,412 @@
+package weka.classifiers.rules.medri;
+
+import com.google.common.hash.Hasher;
+import weka.core.Attribute;
+import weka.core.FastVector;
+import weka.core.Instances;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads nominal ARFF or CSV files straight into {@link ILines}, record by record, without
+ * building Instances: records are encoded into column chunks of CHUNK lines, which are
+ * joined into the final columns once the file is read.
+ * <p>
+ * Codes are the ones Weka gives: the index of the value in the attribute declaration for
+ * ARFF, the order of first appearance for CSV (first row holds the attribute names).
+ * Missing values (?) are encoded as 0, as (int) of a missing value is in MedriUtils.mapIdata.
+ * The class is the last attribute.
+ */
+public class LinesReader {
+
+    static final int CHUNK = 1 << 16;
+
+    private static final String MISSING = "?";
+
+    private final List<String> names = new ArrayList<>();
+    private final List<List<String>> values = new ArrayList<>();
+    private final List<Map<String, Integer>> codes = new ArrayList<>();
+    private final List<ColumnBuilder> columns = new ArrayList<>();
+    private String relation;
+    private int numLines = 0;
+    private int lineNumber = 0;
+
+    LinesReader() {
+    }
+
+    /**
+     * Reads file.csv as CSV, any other file as ARFF, both UTF-8
+     */
+    public static EncodedDataset read(File file) throws IOException {
+        return read(file, null);
+    }
+
+    /**
+     * @param hasher receives every byte of the file as it is read, or null
+     */
+    public static EncodedDataset read(File file, Hasher hasher) throws IOException {
+        InputStream bytes = new FileInputStream(file);
+        if (hasher != null) bytes = hashing(bytes, hasher);
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(bytes, StandardCharsets.UTF_8), 1 << 16)) {
+            if (file.getName().toLowerCase().endsWith(".csv")) {
+                String name = file.getName();
+                return readCsv(in, name.substring(0, name.length() - 4));
+            }
+            return readArff(in);
+        }
+    }
+
+    /**
+     * @return in, also putting every byte read from it into hasher
+     */
+    private static InputStream hashing(InputStream in, final Hasher hasher) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) hasher.putByte((byte) b);
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) hasher.putBytes(b, off, n);
+                return n;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long skipped = 0;
+                while (skipped < n && read() >= 0) skipped++;
+                return skipped;
+            }
+
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+        };
+    }
+
+    public static EncodedDataset readArff(BufferedReader in) throws IOException {
+        return new LinesReader().arff(in);
+    }
+
+    public static EncodedDataset readCsv(BufferedReader in, String relation) throws IOException {
+        return new LinesReader().csv(in, relation);
+    }
+
+    private EncodedDataset arff(BufferedReader in) throws IOException {
+        String line;
+        boolean data = false;
+        List<String> tokens = new ArrayList<>();
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("%")) continue;
+
+            if (data) {
+                if (line.startsWith("{")) sparseRecord(line, tokens);
+                else record(line, tokens, false);
+                continue;
+            }
+            data = headerLine(line, tokens);
+        }
+        if (!data) throw error("No @data section");
+        return build();
+    }
+
+    /**
+     * @param line trimmed ARFF header line, neither empty nor a comment
+     * @return true for the @data line
+     */
+    private boolean headerLine(String line, List<String> tokens) throws IOException {
+        String lower = line.toLowerCase();
+        if (lower.startsWith("@relation")) {
+            relation = unquote(line.substring("@relation".length()).trim());
+        } else if (lower.startsWith("@attribute")) {
+            declare(line.substring("@attribute".length()).trim(), tokens);
+        } else if (lower.startsWith("@data")) {
+            if (names.isEmpty()) throw error("No attributes declared");
+            return true;
+        } else {
+            throw error("Unexpected header line " + line);
+        }
+        return false;
+    }
+
+    /**
+     * Reads the ARFF header, up to and including the @data line
+     *
+     * @param in ARFF bytes, UTF-8
+     * @return number of bytes of the header
+     */
+    long readHeader(InputStream in) throws IOException {
+        long offset = 0;
+        List<String> tokens = new ArrayList<>();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int b = 0;
+        while (b >= 0) {
+            bytes.reset();
+            while ((b = in.read()) >= 0 && b != '\n') bytes.write(b);
+            offset += bytes.size() + (b >= 0 ? 1 : 0);
+            lineNumber++;
+            String line = new String(bytes.toByteArray(), StandardCharsets.UTF_8).trim();
+            if (line.isEmpty() || line.startsWith("%")) continue;
+            if (headerLine(line, tokens)) return offset;
+        }
+        throw error("No @data section");
+    }
+
+    /*
+     * Dictionary of the attributes read so far
+     */
+
+    int numAttributes() {
+        return names.size();
+    }
+
+    List<String> values(int att) {
+        return values.get(att);
+    }
+
+    Map<String, Integer> codes(int att) {
+        return codes.get(att);
+    }
+
+    /**
+     * @return empty data of the attributes read, class last
+     */
+    Instances header() {
+        int numAtts = names.size();
+        FastVector attributes = new FastVector(numAtts);
+        for (int att = 0; att < numAtts; att++) {
+            List<String> attValues = values.get(att);
+            FastVector fv = new FastVector(attValues.size());
+            for (String value : attValues) fv.addElement(value);
+            attributes.addElement(new Attribute(names.get(att), fv));
+        }
+        Instances header = new Instances(relation, attributes, 0);
+        header.setClassIndex(numAtts - 1);
+        return header;
+    }
+
+    private EncodedDataset csv(BufferedReader in, String relation) throws IOException {
+        this.relation = relation;
+        String line;
+        List<String> tokens = new ArrayList<>();
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            if (line.trim().isEmpty()) continue;
+            if (names.isEmpty()) {
+                split(line, ',', tokens);
+                for (String name : tokens) add(name, new ArrayList<String>());
+                continue;
+            }
+            record(line, tokens, true);
+        }
+        if (names.isEmpty()) throw error("No header row");
+        return build();
+    }
+
+    /**
+     * @param declaration attribute name then {value, ...}
+     */
+    private void declare(String declaration, List<String> tokens) throws IOException {
+        int end;
+        if (declaration.startsWith("'") || declaration.startsWith("\"")) {
+            end = declaration.indexOf(declaration.charAt(0), 1);
+            while (end > 0 && declaration.charAt(end - 1) == '\\') end = declaration.indexOf(declaration.charAt(0), end + 1);
+            if (end < 0) throw error("Unterminated attribute name");
+            end++;
+        } else {
+            end = 0;
+            while (end < declaration.length() && !Character.isWhitespace(declaration.charAt(end))
+                    && declaration.charAt(end) != '{') end++;
+        }
+        String name = unquote(declaration.substring(0, end));
+        String type = declaration.substring(end).trim();
+        if (!type.startsWith("{") || !type.endsWith("}"))
+            throw error("Attribute " + name + " is not nominal, only nominal attributes are read");
+
+        split(type.substring(1, type.length() - 1), ',', tokens);
+        add(name, new ArrayList<>(tokens));
+    }
+
+    private void add(String name, List<String> attValues) {
+        Map<String, Integer> attCodes = new HashMap<>();
+        for (int v = 0; v < attValues.size(); v++) attCodes.put(attValues.get(v), v);
+        names.add(name);
+        values.add(attValues);
+        codes.add(attCodes);
+        columns.add(new ColumnBuilder(attValues.size()));
+    }
+
+    /**
+     * @param grow add unknown values to the attribute, else they are an error
+     */
+    private void record(String line, List<String> tokens, boolean grow) throws IOException {
+        split(line, ',', tokens);
+        int numAtts = names.size();
+        //an ARFF instance weight {w} may follow the values
+        if (tokens.size() == numAtts + 1 && tokens.get(numAtts).startsWith("{")) tokens.remove(numAtts);
+        if (tokens.size() != numAtts)
+            throw error(tokens.size() + " values instead of " + numAtts);
+        for (int att = 0; att < numAtts; att++) columns.get(att).add(code(att, tokens.get(att), grow));
+        numLines++;
+    }
+
+    /**
+     * {index value, ...}, attributes left out hold their first value
+     */
+    private void sparseRecord(String line, List<String> tokens) throws IOException {
+        int close = line.indexOf('}');
+        if (close < 0) throw error("Unterminated sparse instance");
+        split(line.substring(1, close), ',', tokens);
+        int numAtts = names.size();
+        int next = 0;
+        for (String token : tokens) {
+            if (token.isEmpty()) continue;
+            int space = 0;
+            while (space < token.length() && !Character.isWhitespace(token.charAt(space))) space++;
+            int att;
+            try {
+                att = Integer.parseInt(token.substring(0, space));
+            } catch (NumberFormatException e) {
+                throw error("Bad sparse value " + token);
+            }
+            if (att < next || att >= numAtts) throw error("Bad sparse index " + att);
+            for (; next < att; next++) columns.get(next).add(0);
+            columns.get(att).add(code(att, unquote(token.substring(space).trim()), false));
+            next = att + 1;
+        }
+        for (; next < numAtts; next++) columns.get(next).add(0);
+        numLines++;
+    }
+
+    private int code(int att, String value, boolean grow) throws IOException {
+        if (MISSING.equals(value)) return 0;
+        Integer code = codes.get(att).get(value);
+        if (code != null) return code;
+        if (!grow) throw error("Unknown value " + value + " of attribute " + names.get(att));
+        List<String> attValues = values.get(att);
+        code = attValues.size();
+        attValues.add(value);
+        codes.get(att).put(value, code);
+        return code;
+    }
+
+    private EncodedDataset build() {
+        int numAtts = names.size();
+        int[] iattrs = new int[numAtts];
+        IColumn[] result = new IColumn[numAtts];
+        for (int att = 0; att < numAtts; att++) {
+            iattrs[att] = values.get(att).size();
+            result[att] = columns.get(att).build(iattrs[att], numLines);
+            columns.set(att, null);
+        }
+        return EncodedDataset.of(header(), new ILines(iattrs, result, numLines));
+    }
+
+    private IOException error(String message) {
+        return new IOException(message + ", line " + lineNumber);
+    }
+
+    /**
+     * Splits s on sep outside quotes into trimmed unquoted tokens
+     */
+    static void split(String s, char sep, List<String> tokens) {
+        tokens.clear();
+        StringBuilder token = new StringBuilder();
+        char quote = 0;
+        boolean quoted = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (quote != 0) {
+                if (c == '\\' && i + 1 < s.length()) token.append(s.charAt(++i));
+                else if (c == quote) quote = 0;
+                else token.append(c);
+            } else if (c == '\'' || c == '"') {
+                if (token.toString().trim().isEmpty()) token.setLength(0);
+                quote = c;
+                quoted = true;
+            } else if (c == sep) {
+                tokens.add(quoted ? token.toString() : token.toString().trim());
+                token.setLength(0);
+                quoted = false;
+            } else if (!quoted) {
+                token.append(c);
+            }
+        }
+        tokens.add(quoted ? token.toString() : token.toString().trim());
+    }
+
+    static String unquote(String s) {
+        s = s.trim();
+        if (s.length() >= 2 && (s.charAt(0) == '\'' || s.charAt(0) == '"') && s.charAt(s.length() - 1) == s.charAt(0)) {
+            StringBuilder result = new StringBuilder();
+            for (int i = 1; i < s.length() - 1; i++) {
+                char c = s.charAt(i);
+                if (c == '\\' && i + 1 < s.length() - 1) c = s.charAt(++i);
+                result.append(c);
+            }
+            return result.toString();
+        }
+        return s;
+    }
+
+    /**
+     * Column growing CHUNK lines at a time, in chunks widened when a value outgrows their width
+     */
+    private static final class ColumnBuilder {
+        final List<IColumn.Writable> chunks = new ArrayList<>();
+        int cardinality;
+        int size = 0;
+
+        ColumnBuilder(int cardinality) {
+            this.cardinality = cardinality;
+        }
+
+        void add(int value) {
+            if (value >= cardinality) widen(value + 1);
+            int at = size % CHUNK;
+            if (at == 0) chunks.add(IColumn.of(cardinality, CHUNK));
+            chunks.get(chunks.size() - 1).set(at, value);
+            size++;
+        }
+
+        private void widen(int newCardinality) {
+            boolean copy = IColumn.width(newCardinality) > IColumn.width(cardinality);
+            cardinality = newCardinality;
+            if (!copy) return;
+            for (int c = 0; c < chunks.size(); c++) {
+                IColumn chunk = chunks.get(c);
+                IColumn.Writable wide = IColumn.of(cardinality, CHUNK);
+                for (int i = 0; i < CHUNK; i++) wide.set(i, chunk.get(i));
+                chunks.set(c, wide);
+            }
+        }
+
+        /**
+         * @return the values in one column, freeing the chunks while copying them
+         */
+        IColumn build(int cardinality, int numLines) {
+            assert numLines == size;
+            IColumn.Writable result = IColumn.of(cardinality, numLines);
+            for (int c = 0; c < chunks.size(); c++) {
+                IColumn chunk = chunks.get(c);
+                chunks.set(c, null);
+                int base = c * CHUNK;
+                for (int i = 0, n = Math.min(CHUNK, numLines - base); i < n; i++) result.set(base + i, chunk.get(i));
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package weka.classifiers.rules.medri;
+
+import weka.classifiers.rules.MeDRI;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Binary model file of a {@link RuleSet}, and a scorer reading it through a memory map.
+ * <p>
+ * The file is big endian ints: a header [MAGIC, VERSION, numRules, numTests, numAtts,
+ * numAnchors, numItems, numPostings, firstEmpty], the rule arrays (labels, correct, covers,
+ * testStart, testAtt, testVal), the {@link RuleIndex} tables (anchorAtts, itemBase, numItems,
+ * postingStart, postings) and last the attribute dictionary (relation name, class index,
+ * then the name and values of each attribute).
+ * <p>
+ * Mapping only checks the header: classify reads the rules and the index from the mapped
+ * pages, so loading costs nothing per rule and processes mapping the same file share its
+ * pages. The dictionary is decoded on first use of header() or toRuleSet().
+ */
+public class MappedRuleSet {
+
+    public static final int MAGIC = 0x4D445249; //"MDRI"
+    public static final int VERSION = 1;
+
+    private static final int HEADER_INTS = 9;
+    private static final int NONE = RuleIndex.NONE;
+
+    private final ByteBuffer buffer;
+    private final IntBuffer ints;
+    private final int numRules, numTests, numAtts, numAnchors, numItems, numPostings, firstEmpty;
+    /**
+     * int offsets of the sections in ints
+     */
+    private final int labels, correct, covers, testStart, testAtt, testVal,
+            anchorAtts, itemBase, itemCount, postingStart, postings, dictionary;
+
+    private volatile Instances header;
+
+    private final ThreadLocal<int[]> buffers = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[numAtts];
+        }
+    };
+
+    private MappedRuleSet(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        this.ints = buffer.asIntBuffer();
+        if (ints.limit() < HEADER_INTS || ints.get(0) != MAGIC)
+            throw new IOException("Not a rule set file");
+        if (ints.get(1) != VERSION)
+            throw new IOException("Unsupported rule set file version " + ints.get(1));
+        numRules = ints.get(2);
+        numTests = ints.get(3);
+        numAtts = ints.get(4);
+        numAnchors = ints.get(5);
+        numItems = ints.get(6);
+        numPostings = ints.get(7);
+        firstEmpty = ints.get(8);
+
+        labels = HEADER_INTS;
+        correct = labels + numRules;
+        covers = correct + numRules;
+        testStart = covers + numRules;
+        testAtt = testStart + numRules + 1;
+        testVal = testAtt + numTests;
+        anchorAtts = testVal + numTests;
+        itemBase = anchorAtts + numAnchors;
+        itemCount = itemBase + numAtts;
+        postingStart = itemCount + numAtts;
+        postings = postingStart + numItems + 1;
+        dictionary = postings + numPostings;
+        if (dictionary > ints.limit())
+            throw new IOException("Truncated rule set file");
+    }
+
+    /**
+     * Maps a file written by write(), read only
+     */
+    public static MappedRuleSet map(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new MappedRuleSet(buffer);
+        }
+    }
+
+    public static void write(RuleSet rules, File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            write(rules, out);
+        }
+    }
+
+    public static void write(RuleSet rules, DataOutputStream out) throws IOException {
+        RuleIndex index = new RuleIndex(rules);
+        int[] itemBase = index.itemBase();
+        int[] postingStart = index.postingStart();
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(rules.numRules());
+        out.writeInt(rules.numTests());
+        out.writeInt(itemBase.length);
+        out.writeInt(index.anchorAtts().length);
+        out.writeInt(postingStart.length - 1);
+        out.writeInt(index.postings().length);
+        out.writeInt(index.firstEmpty());
+
+        writeInts(out, rules.labels());
+        writeInts(out, rules.correct());
+        writeInts(out, rules.covers());
+        writeInts(out, rules.testStart());
+        writeInts(out, rules.testAtt());
+        writeInts(out, rules.testVal());
+
+        writeInts(out, index.anchorAtts());
+        writeInts(out, itemBase);
+        writeInts(out, index.numItems());
+        writeInts(out, postingStart);
+        writeInts(out, index.postings());
+
+        MedriUtils.writeHeader(rules.header(), out);
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int v : values) out.writeInt(v);
+    }
+
+    public int numRules() {
+        return numRules;
+    }
+
+    /**
+     * @return label of the first rule covering inst, IRule.EMPTY if none does
+     */
+    public int classify(Instance inst) {
+        int[] cond = buffers.get();
+        for (int att = 0; att < numAtts; att++) cond[att] = (int) inst.value(att);
+        return classify(cond);
+    }
+
+    /**
+     * Same walk as RuleIndex.classify, over the mapped tables
+     *
+     * @param cond item of each attribute
+     * @return label of the first rule covering cond, IRule.EMPTY if none does
+     */
+    public int classify(int[] cond) {
+        int best = firstEmpty;
+        for (int a = 0; a < numAnchors; a++) {
+            int att = ints.get(anchorAtts + a);
+            int val = cond[att];
+            if (val < 0 || val >= ints.get(itemCount + att)) continue;
+            int item = ints.get(itemBase + att) + val;
+            for (int p = ints.get(postingStart + item), end = ints.get(postingStart + item + 1); p < end; p++) {
+                int r = ints.get(postings + p);
+                if (r >= best) break;
+                if (covers(r, cond)) {
+                    best = r;
+                    break;
+                }
+            }
+        }
+        return best == NONE ? IRule.EMPTY : ints.get(labels + best);
+    }
+
+    /**
+     * @return true if cond passes the tests of the rule after its anchor
+     */
+    private boolean covers(int rule, int[] cond) {
+        for (int t = ints.get(testStart + rule) + 1, end = ints.get(testStart + rule + 1); t < end; t++) {
+            if (cond[ints.get(testAtt + t)] != ints.get(testVal + t)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return empty header decoded from the dictionary, null if the rules were written without one
+     */
+    public Instances header() throws IOException {
+        Instances result = header;
+        if (result != null) return result;
+
+        ByteBuffer dict = buffer.duplicate();
+        dict.position(dictionary * 4);
+        result = MedriUtils.readHeader(new DataInputStream(new ByteBufferInput(dict)));
+        header = result;
+        return result;
+    }
+
+    /**
+     * @return the rules copied to the heap, with the decoded header
+     */
+    public RuleSet toRuleSet() throws IOException {
+        return new RuleSet(header(), ints(labels, numRules), ints(testStart, numRules + 1),
+                ints(testAtt, numTests), ints(testVal, numTests), ints(correct, numRules), ints(covers, numRules));
+    }
+
+    private int[] ints(int offset, int length) {
+        int[] result = new int[length];
+        IntBuffer section = ints.duplicate();
+        section.position(offset);
+        section.get(result);
+        return result;
+    }
+
+    private static class ByteBufferInput extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInput(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) {
+            if (!buffer.hasRemaining()) return -1;
+            len = Math.min(len, buffer.remaining());
+            buffer.get(bytes, off, len);
+            return len;
+        }
+    }
+
+    /**
+     * Writes the rules of a MeDRI model learned from an ARFF file, then times mapping the
+     * file and checks its labels against the model
+     * <p>
+     * usage: MappedRuleSet file.arff model.rules [MeDRI options]
+     */
+    public static void main(String[] args) throws Exception {
+        Instances data = new Instances(new BufferedReader(new FileReader(args[0])));
+        data.setClassIndex(data.numAttributes() - 1);
+        File file = new File(args[1]);
+
+        MeDRI classifier = new MeDRI();
+        classifier.setOptions(Arrays.copyOfRange(args, 2, args.length));
+        classifier.buildClassifier(data);
+        write(classifier.getRules(), file);
+
+        long start = System.nanoTime();
+        MappedRuleSet mapped = map(file);
+        long time = System.nanoTime() - start;
+        System.out.println(String.format("rules = %,d , file = %,d bytes , mapped in %,d us",
+                mapped.numRules(), file.length(), time / 1000));
+
+        int diff = 0;
+        for (int i = 0; i < data.numInstances(); i++) {
+            double expected = classifier.classifyInstance(data.instance(i));
+            int label = Instance.isMissingValue(expected) ? IRule.EMPTY : (int) expected;
+            if (mapped.classify(data.instance(i)) != label) diff++;
+        }
+        System.out.println("different labels = " + diff);
+    }
+}
@@ -95,7 +95,7 @@ public class MaxIndex {
 
     private void maxOne(int[] itemLabels, int attIndex, int itemIndex, int label) {
         int sum = sum(itemLabels);
-        int diff = itemLabels[label] * bestCover - bestCorrect * sum;
+        long diff = diff(itemLabels[label], sum, bestCorrect, bestCover);
         if (diff > 0 || diff == 0 && itemLabels[label] > bestCorrect) {
             this.bestAtt = attIndex;
             this.bestItem = itemIndex;
@@ -112,7 +112,7 @@ public class MaxIndex {
 
         if(minConfidence > (double)itemCorrect/(double)sum) return;
 
-        int diff = itemCorrect * bestCover - bestCorrect * sum;
+        long diff = diff(itemCorrect, sum, bestCorrect, bestCover);
         if (diff > 0 || diff == 0 && itemCorrect > bestCorrect) {
             this.bestAtt = attIndex;
             this.bestItem = itemIndex;
@@ -126,7 +126,7 @@ public class MaxIndex {
         int sum = sum(itemLabels);
         boolean changed = false;
         for (int i = 0; i < itemLabels.length; i++) {
-            int diff = itemLabels[i] * bestCover - bestCorrect * sum;
+            long diff = diff(itemLabels[i], sum, bestCorrect, bestCover);
             if (diff > 0 || diff == 0 && itemLabels[i] > bestCorrect) {
                 this.bestAtt = attIndex;
                 this.bestItem = itemIndex;
@@ -148,7 +148,7 @@ public class MaxIndex {
 
             if(minConfidence > (double)itemCorrect/(double)sum) continue;
 
-            int diff = itemCorrect * bestCover - bestCorrect * sum;
+            long diff = diff(itemCorrect, sum, bestCorrect, bestCover);
             if (diff > 0 || diff == 0 && itemCorrect > bestCorrect) {
                 this.bestAtt = attIndex;
                 this.bestItem = itemIndex;
@@ -171,6 +171,14 @@ public class MaxIndex {
                 .toString();
     }
 
+    /**
+     * Compares correct/cover with bestCorrect/bestCover without dividing, positive when better.
+     * Products are taken in long, int products overflow once counts pass 46340.
+     */
+    public static long diff(int correct, int cover, int bestCorrect, int bestCover) {
+        return (long) correct * bestCover - (long) bestCorrect * cover;
+    }
+
     public static int sum(int[] a) {
         int result = 0;
         for (int i : a) result += i;
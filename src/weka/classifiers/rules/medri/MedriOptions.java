@@ -53,8 +53,23 @@ public class MedriOptions implements OptionHandler, Serializable{
         };
     }
 
+    /**
+     * How calcStep* holds and counts the lines: Index scans line ids, Bitmap intersects bitsets
+     */
+    enum ENGINES {Index, Bitmap;
+        public static Tag[] toTags(){
+            ENGINES[] engines = values();
+            Tag[] result = new Tag[engines.length];
+            for (int i = 0; i < engines.length; i++) {
+                result[i] = new Tag(i, engines[i].name(), engines[i].name());
+            }
+            return result;
+        };
+    }
+
     protected String m_debugLevel= "info";
     protected String m_algorithm= "Prism";
+    protected String m_engine= "Index";
 
 
     public String debugLevel() {
@@ -66,6 +81,79 @@ public class MedriOptions implements OptionHandler, Serializable{
 
     protected int maxNumInstances = 0;
 
+    /**
+     * Learn from distinct attribute patterns weighted by label counts instead of raw lines
+     */
+    protected boolean collapseLines = false;
+
+    public boolean getCollapseLines() {
+        return collapseLines;
+    }
+
+    public void setCollapseLines(boolean collapseLines) {
+        this.collapseLines = collapseLines;
+    }
+
+    /**
+     * Batch classification intersects attribute-value bitsets rule by rule
+     */
+    protected boolean bitsetScoring = false;
+
+    public boolean getBitsetScoring() {
+        return bitsetScoring;
+    }
+
+    public void setBitsetScoring(boolean bitsetScoring) {
+        this.bitsetScoring = bitsetScoring;
+    }
+
+    /**
+     * Classify with the rules compiled into Java code
+     */
+    protected boolean compileRules = false;
+
+    public boolean getCompileRules() {
+        return compileRules;
+    }
+
+    public void setCompileRules(boolean compileRules) {
+        this.compileRules = compileRules;
+    }
+
+    /**
+     * eDRI grows one rule per class at the same time, sharing every pass over the lines
+     */
+    protected boolean sharedScan = false;
+
+    public boolean getSharedScan() {
+        return sharedScan;
+    }
+
+    public void setSharedScan(boolean sharedScan) {
+        this.sharedScan = sharedScan;
+    }
+
+    /**
+     * Threads used to induce the classes of Prism and eDRI in parallel and to count large
+     * line sets, 0 for all available processors
+     */
+    protected int numThreads = 1;
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    public void setNumThreads(int numThreads) {
+        this.numThreads = Math.max(0, numThreads);
+    }
+
+    /**
+     * @return number of threads to use, resolving 0 to the available processors
+     */
+    public int threadsToUse() {
+        return numThreads == 0 ? Runtime.getRuntime().availableProcessors() : numThreads;
+    }
+
     public int getMaxNumInstances() {
         return maxNumInstances;
     }
@@ -84,6 +172,14 @@ public class MedriOptions implements OptionHandler, Serializable{
 
     }
 
+    public SelectedTag getEngine() {
+        return new SelectedTag(m_engine, ENGINES.toTags());
+    }
+
+    public boolean useBitmapEngine() {
+        return ENGINES.Bitmap.name().equals(m_engine);
+    }
+
 
     public double getMinFrequency() {
         return minFrequency;
@@ -142,6 +238,12 @@ public class MedriOptions implements OptionHandler, Serializable{
         result.addElement(new Option("minimum confidence", "C", 1, "-C <minimum confidence ofOne a rule >"));
         result.addElement(new Option("descritption", "D", 1, "-D < off | trace | debug | info | warn | error | fatal >"));
         result.addElement(new Option("descritption", "A", 1, "-A < Prism | eDRI | MeDRI >"));
+        result.addElement(new Option("number of threads inducing classes and counting lines, 0 for all processors", "N", 1, "-N <number of threads>"));
+        result.addElement(new Option("line set engine", "E", 1, "-E < Index | Bitmap >"));
+        result.addElement(new Option("Collapse duplicated lines into weighted patterns?", "W", 0, "-W"));
+        result.addElement(new Option("Grow the eDRI rules of all classes in shared passes?", "M", 0, "-M"));
+        result.addElement(new Option("Compile the rules into Java code to classify?", "G", 0, "-G"));
+        result.addElement(new Option("Classify batches with attribute-value bitsets?", "B", 0, "-B"));
         return result.elements();
 
     }
@@ -162,11 +264,27 @@ public class MedriOptions implements OptionHandler, Serializable{
 
         addDefaultRule = Utils.getFlag('R', options);
 
+        String sThreads = Utils.getOption('N', options);
+        if (sThreads.length() > 0)
+            setNumThreads(Integer.parseInt(sThreads));
+
+        String engineString = Utils.getOption('E', options);
+        if (engineString.length() > 0)
+            m_engine = ENGINES.valueOf(engineString).name();
+
+        collapseLines = Utils.getFlag('W', options);
+
+        sharedScan = Utils.getFlag('M', options);
+
+        compileRules = Utils.getFlag('G', options);
+
+        bitsetScoring = Utils.getFlag('B', options);
+
     }
 
     @Override
     public String[] getOptions() {
-        String[] result = new String[9];
+        String[] result = new String[17];
         int currentIndex = 0;
         result[currentIndex++] = "-D";
         result[currentIndex++] = m_debugLevel;
@@ -185,6 +303,32 @@ public class MedriOptions implements OptionHandler, Serializable{
         else
             result[currentIndex++] = "";
 
+        result[currentIndex++] = "-N";
+        result[currentIndex++] = "" + numThreads;
+
+        result[currentIndex++] = "-E";
+        result[currentIndex++] = m_engine;
+
+        if(collapseLines)
+            result[currentIndex++] = "-W";
+        else
+            result[currentIndex++] = "";
+
+        if(sharedScan)
+            result[currentIndex++] = "-M";
+        else
+            result[currentIndex++] = "";
+
+        if(compileRules)
+            result[currentIndex++] = "-G";
+        else
+            result[currentIndex++] = "";
+
+        if(bitsetScoring)
+            result[currentIndex++] = "-B";
+        else
+            result[currentIndex++] = "";
+
         return result;
     }
 
@@ -196,6 +340,10 @@ public class MedriOptions implements OptionHandler, Serializable{
          m_algorithm = algo.getSelectedTag().getIDStr();
     }
 
+    public void setEngine(SelectedTag engine) {
+         m_engine = engine.getSelectedTag().getIDStr();
+    }
+
 
     public  void changeLogLevelRunTime() {
         changeLogLevelRunTime(m_debugLevel);
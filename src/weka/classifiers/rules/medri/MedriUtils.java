@@ -7,11 +7,18 @@ import com.google.common.primitives.Ints;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import weka.classifiers.rules.edri.EDRIUtils;
+import weka.core.Attribute;
+import weka.core.FastVector;
 import weka.core.Instance;
 import weka.core.Instances;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * Created by suhel on 17/03/16.
@@ -20,6 +27,11 @@ public class MedriUtils {
 
     static Logger logger = LoggerFactory.getLogger(MedriUtils.class);
 
+    /**
+     * Lines counted by one fork/join task, smaller partitions are counted serially
+     */
+    public static final int PARALLEL_COUNT_CHUNK = 1 << 15;
+
 
     public static int[] mapAttributes(Instances data) {
         int[] iattrs = new int[data.numAttributes()];
@@ -29,25 +41,154 @@ public class MedriUtils {
         return iattrs;
     }
 
-    public static Pair<Collection<int[]>, int[]> mapIdataAndLabels(Instances data) {
+    /**
+     * Writes the attribute dictionary of data: number of attributes (-1 for a null data),
+     * class index, relation name, then the name and values of each attribute
+     */
+    public static void writeHeader(Instances data, DataOutput out) throws IOException {
+        if (data == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(data.numAttributes());
+        out.writeInt(data.classIndex());
+        out.writeUTF(data.relationName());
+        for (int att = 0; att < data.numAttributes(); att++) {
+            Attribute attribute = data.attribute(att);
+            out.writeUTF(attribute.name());
+            out.writeInt(attribute.numValues());
+            for (int v = 0; v < attribute.numValues(); v++) out.writeUTF(attribute.value(v));
+        }
+    }
+
+    /**
+     * @return empty data of the dictionary written by writeHeader, null if it was written for null
+     */
+    public static Instances readHeader(DataInput in) throws IOException {
+        int numAttributes = in.readInt();
+        if (numAttributes < 0) return null;
+        int classIndex = in.readInt();
+        String relation = in.readUTF();
+        FastVector attributes = new FastVector(numAttributes);
+        for (int att = 0; att < numAttributes; att++) {
+            String name = in.readUTF();
+            int numValues = in.readInt();
+            FastVector values = new FastVector(numValues);
+            for (int v = 0; v < numValues; v++) values.addElement(in.readUTF());
+            attributes.addElement(new Attribute(name, values));
+        }
+        Instances result = new Instances(relation, attributes, 0);
+        result.setClassIndex(classIndex);
+        return result;
+    }
+
+    /**
+     * @return lines of data, labels included as they are (missing ones as 0), for classifying
+     */
+    public static ILines mapIdata(Instances data) {
+        int[] iattrs = mapAttributes(data);
+        IColumn.Writable[] columns = IColumn.of(iattrs, data.numInstances());
+        int numAttrs = data.numAttributes();
+        for (int i = 0; i < data.numInstances(); i++) {
+            Instance instance = data.instance(i);
+            for (int att = 0; att < numAttrs; att++) {
+                columns[att].set(i, (int) instance.value(att));
+            }
+        }
+        return new ILines(iattrs, columns, data.numInstances());
+    }
+
+    public static Pair<ILines, int[]> mapIdataAndLabels(Instances data) {
         int labelIndex = data.classIndex();
         assert labelIndex == data.numAttributes() - 1;
 
-        Collection<int[]> lineData = new ArrayList<>(data.numInstances());
+        int[] iattrs = mapAttributes(data);
+        IColumn.Writable[] columns = IColumn.of(iattrs, data.numInstances());
         int[] labelsCount = new int[data.attribute(data.classIndex()).numValues()];
 
         int numAttrs = data.numAttributes();
         for (int i = 0; i < data.numInstances(); i++) {
             Instance instance = data.instance(i);
-            final int[] row = new int[numAttrs];
 
-            for (int att = 0; att < row.length; att++) {
-                row[att] = (int) instance.value(att);
+            for (int att = 0; att < numAttrs; att++) {
+                columns[att].set(i, (int) instance.value(att));
             }
-            labelsCount[row[labelIndex]]++;
-            lineData.add(row);
+            labelsCount[columns[labelIndex].get(i)]++;
         }
-        return new Pair(lineData, labelsCount);
+        return new Pair(new ILines(iattrs, columns, data.numInstances()), labelsCount);
+    }
+
+    /**
+     * Collapses duplicated lines: every distinct pattern of attribute values becomes one
+     * weighted line holding the count of each label, counts and rules stay the same.
+     *
+     * @param lineData unweighted lines
+     * @return weighted lines, one per distinct pattern, in order of first appearance
+     */
+    public static ILines collapseLines(ILines lineData) {
+        assert !lineData.isWeighted();
+        int numLabels = lineData.numLabels;
+        int labelIndex = lineData.labelIndex;
+
+        //open addressing table of pattern ids, a pattern is represented by its first line
+        int[] table = new int[1 << 10];
+        Arrays.fill(table, -1);
+        int[] firstLine = new int[1 << 9];
+        int[] weights = new int[firstLine.length * numLabels];
+        int numPatterns = 0;
+
+        for (int line = 0; line < lineData.numLines(); line++) {
+            int slot = hashPattern(lineData, line, labelIndex) & (table.length - 1);
+            int p;
+            while ((p = table[slot]) != -1 && !samePattern(lineData, firstLine[p], line, labelIndex))
+                slot = (slot + 1) & (table.length - 1);
+
+            if (p == -1) {
+                p = numPatterns++;
+                if (p == firstLine.length) {
+                    firstLine = Arrays.copyOf(firstLine, 2 * p);
+                    weights = Arrays.copyOf(weights, 2 * p * numLabels);
+                }
+                firstLine[p] = line;
+                table[slot] = p;
+                if (2 * numPatterns > table.length)
+                    table = rehash(lineData, firstLine, numPatterns, 2 * table.length, labelIndex);
+            }
+            weights[p * numLabels + lineData.label(line)]++;
+        }
+
+        IColumn.Writable[] columns = IColumn.of(lineData.iattrs, numPatterns);
+        for (int p = 0; p < numPatterns; p++) {
+            for (int att = 0; att < labelIndex; att++) {
+                columns[att].set(p, lineData.get(firstLine[p], att));
+            }
+        }
+        ILines result = new ILines(lineData.iattrs, columns, numPatterns, Arrays.copyOf(weights, numPatterns * numLabels));
+        logger.debug("collapsed {} lines into {} patterns", lineData.numLines(), numPatterns);
+        return result;
+    }
+
+    private static int[] rehash(ILines lineData, int[] firstLine, int numPatterns, int size, int labelIndex) {
+        int[] table = new int[size];
+        Arrays.fill(table, -1);
+        for (int p = 0; p < numPatterns; p++) {
+            int slot = hashPattern(lineData, firstLine[p], labelIndex) & (size - 1);
+            while (table[slot] != -1) slot = (slot + 1) & (size - 1);
+            table[slot] = p;
+        }
+        return table;
+    }
+
+    private static int hashPattern(ILines lineData, int line, int labelIndex) {
+        int h = 1;
+        for (int att = 0; att < labelIndex; att++) h = 31 * h + lineData.get(line, att);
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean samePattern(ILines lineData, int line1, int line2, int labelIndex) {
+        for (int att = 0; att < labelIndex; att++)
+            if (lineData.get(line1, att) != lineData.get(line2, att)) return false;
+        return true;
     }
 
     public static int[] toIntArray(Instance instance) {
@@ -64,10 +205,10 @@ public class MedriUtils {
     }
 
 
-    public static StringBuilder print(Collection<int[]> c) {
+    public static StringBuilder print(ILines lineData, int[] lines) {
         StringBuilder sb = new StringBuilder();
-        for (Iterator<int[]> iter = c.iterator(); iter.hasNext(); ) {
-            sb.append(Arrays.toString(iter.next()) + "\n");
+        for (int line : lines) {
+            sb.append(Arrays.toString(lineData.line(line)) + "\n");
         }
         return sb;
     }
@@ -92,8 +233,97 @@ public class MedriUtils {
     }
 
 
-    public static int[][][] countStep(int[] iattrs, Collection<int[]> lineData, int[] avAtts) {
+    public static int[][][] countStep(int[] iattrs, ILines lineData, int[] lines, int[] avAtts) {
+        return countStep(iattrs, lineData, lines, 0, lines.length, avAtts);
+    }
+
+    /**
+     * @return count cube [att][item][label] of lines[from, to)
+     */
+    public static int[][][] countStep(int[] iattrs, ILines lineData, int[] lines, int from, int to, int[] avAtts) {
+
+        int[][][] result = newCountCube(iattrs, avAtts);
 
+        if (lineData.isWeighted()) {
+            for (int a : avAtts)
+                lineData.column(a).countWeighted(lines, from, to, lineData.weights(), lineData.numLabels, result[a]);
+            return result;
+        }
+
+        //filling with values, one column at a time
+        IColumn labels = lineData.labels();
+        for (int a : avAtts)
+            lineData.column(a).count(lines, from, to, labels, result[a]);
+
+        return result;
+    }
+
+
+    /**
+     * Parallel version of countStep, lines[from, to) are split into chunks counted into
+     * their own cubes, which are then summed.
+     *
+     * @param pool fork/join pool, serial countStep when null or for less than two chunks
+     * @return count cube [att][item][label] of lines[from, to), same as countStep
+     */
+    public static int[][][] countStep(int[] iattrs, ILines lineData, int[] lines, int from, int to,
+                                      int[] avAtts, ForkJoinPool pool) {
+        if (pool == null || to - from < 2 * PARALLEL_COUNT_CHUNK)
+            return countStep(iattrs, lineData, lines, from, to, avAtts);
+        CountTask task = new CountTask(iattrs, lineData, lines, from, to, avAtts);
+        //a class induced in the pool counts inside it
+        return ForkJoinTask.inForkJoinPool() ? task.invoke() : pool.invoke(task);
+    }
+
+    static class CountTask extends RecursiveTask<int[][][]> {
+        static final long serialVersionUID = 424878435065750601L;
+
+        final int[] iattrs;
+        final ILines lineData;
+        final int[] lines;
+        final int from, to;
+        final int[] avAtts;
+
+        CountTask(int[] iattrs, ILines lineData, int[] lines, int from, int to, int[] avAtts) {
+            this.iattrs = iattrs;
+            this.lineData = lineData;
+            this.lines = lines;
+            this.from = from;
+            this.to = to;
+            this.avAtts = avAtts;
+        }
+
+        @Override
+        protected int[][][] compute() {
+            if (to - from < 2 * PARALLEL_COUNT_CHUNK)
+                return countStep(iattrs, lineData, lines, from, to, avAtts);
+
+            int mid = (from + to) >>> 1;
+            CountTask right = new CountTask(iattrs, lineData, lines, mid, to, avAtts);
+            right.fork();
+            int[][][] result = new CountTask(iattrs, lineData, lines, from, mid, avAtts).compute();
+            addCounts(result, right.join(), avAtts);
+            return result;
+        }
+    }
+
+    /**
+     * result += other, for the attributes in avAtts
+     */
+    public static void addCounts(int[][][] result, int[][][] other, int[] avAtts) {
+        for (int a : avAtts) {
+            for (int itm = 0; itm < result[a].length; itm++) {
+                int[] r = result[a][itm];
+                int[] o = other[a][itm];
+                for (int lbl = 0; lbl < r.length; lbl++) r[lbl] += o[lbl];
+            }
+        }
+    }
+
+    /**
+     * @return empty count cube [att][item][label], attributes not in avAtts get empty arrays
+     */
+    public static int[][][] newCountCube(int[] iattrs, int[] avAtts) {
         int labelIndex = iattrs.length - 1;
         int numLabels = iattrs[labelIndex];
 
@@ -107,53 +337,86 @@ public class MedriUtils {
         for (int i = 0; i < result.length; i++) {
             if (result[i] == null) result[i] = new int[0][0];
         }
-
-        //filling with values
-        for (int[] row : lineData) {
-            int cls = row[labelIndex];
-
-            for (int a : avAtts)
-                result[a][row[a]][cls]++;
-        }
         return result;
     }
 
-
     /**
+     * Partitions lines[from, to) in place, lines where att = val are moved to the front
+     *
      * @param lineData
-     * @param rule
-     * @param resultSize bestCover of the last MaxIndex
-     * @return Pair<coveredLines, notCoveredLines>
+     * @param lines    ids of the lines to split
+     * @param att      attribute of the last test added to the rule
+     * @param val      item of the last test added to the rule
+     * @return end of the covered lines, lines[from, end) are covered and lines[end, to) are not
      */
-    public static Pair<Collection<int[]>, Collection<int[]>> splitAndGetCovered(
-            Collection<int[]> lineData, IRule rule, int resultSize) {
-
-//        assert lineData.size() > resultSize;
-
-        Collection<int[]> coveredLines = new ArrayList<>(resultSize);
-        Collection<int[]> notCoveredLines = new ArrayList<>(lineData.size() - resultSize);
-
-        for (Iterator<int[]> iter = lineData.iterator(); iter.hasNext(); ) {
-            int[] line = iter.next();
+    public static int splitAndGetCovered(ILines lineData, int[] lines, int from, int to, int att, int val) {
+        IColumn column = lineData.column(att);
+        int i = from, j = to - 1;
+        while (i <= j) {
+            int line = lines[i];
+            if (column.get(line) == val) {
+                i++;
+            } else {
+                lines[i] = lines[j];
+                lines[j--] = line;
+            }
+        }
+        return i;
+    }
 
-            if (rule.classify(line) == IRule.EMPTY) {
-                notCoveredLines.add(line);
+    /**
+     * Same as splitAndGetCovered, the covered lines are counted in the same pass
+     *
+     * @param result count cube of avAtts, filled with the covered lines
+     * @return end of the covered lines
+     */
+    public static int splitAndCountCovered(ILines lineData, int[] lines, int from, int to, int att, int val,
+                                           int[] avAtts, int[][][] result) {
+        IColumn column = lineData.column(att);
+        IColumn labels = lineData.labels();
+        int[] weights = lineData.weights();
+        int numLabels = lineData.numLabels;
+        IColumn[] columns = new IColumn[avAtts.length];
+        for (int k = 0; k < avAtts.length; k++) columns[k] = lineData.column(avAtts[k]);
+
+        int i = from, j = to - 1;
+        while (i <= j) {
+            int line = lines[i];
+            if (column.get(line) == val) {
+                if (weights == null) {
+                    int cls = labels.get(line);
+                    for (int k = 0; k < columns.length; k++)
+                        result[avAtts[k]][columns[k].get(line)][cls]++;
+                } else {
+                    int base = line * numLabels;
+                    for (int k = 0; k < columns.length; k++) {
+                        int[] itemCounts = result[avAtts[k]][columns[k].get(line)];
+                        for (int lbl = 0; lbl < numLabels; lbl++) itemCounts[lbl] += weights[base + lbl];
+                    }
+                }
+                i++;
             } else {
-                coveredLines.add(line);
+                lines[i] = lines[j];
+                lines[j--] = line;
             }
         }
-        assert coveredLines.size() == resultSize;
-        assert coveredLines.size() + notCoveredLines.size() == lineData.size();
-        return new Pair(coveredLines, notCoveredLines);
+        return i;
     }
 
     /**
      * @param iattrs   holds number of item for each attribute including the class attribute
-     * @param lineData line data, pruned at the end to NOT COVERED instances
+     * @param lines    line data, pruned at the end to NOT COVERED instances
      * @param label    label index
      * @return
      */
-    public static IRuleLines calcStepPrism(int[] iattrs, Collection<int[]> lineData, final int label) {
+    public static IRuleLines calcStepPrism(int[] iattrs, LineSet lines, final int label) {
+        return calcStepPrism(iattrs, lines, label, null);
+    }
+
+    /**
+     * @param cache count cubes shared by the classes of one build, or null
+     */
+    public static IRuleLines calcStepPrism(int[] iattrs, LineSet lines, final int label, CountCache cache) {
 
         int labelIndex = iattrs.length - 1;
         int numLabels = iattrs[labelIndex];
@@ -164,15 +427,17 @@ public class MedriUtils {
         IRule rule = new IRule(label);
 
 
-        Collection<int[]> entryLines = lineData;
-        Collection<int[]> notCoveredLines = new ArrayList<>(lineData.size());
+        lines.begin();
 
         long scannedInstances = 0L;
+        int[][][] stepCount = cache == null ? null : cache.get(lines, Ints.toArray(avAtts));
+        if (stepCount == null) {
+            scannedInstances += lines.entrySize();
+            stepCount = lines.count(Ints.toArray(avAtts));
+            if (cache != null) cache.put(lines, Ints.toArray(avAtts), stepCount);
+        }
+        boolean grow;
         do {
-
-            scannedInstances += 2 * entryLines.size();
-
-            int[][][] stepCount = countStep(iattrs, entryLines, Ints.toArray(avAtts));
             MaxIndex mx = MaxIndex.ofOne(stepCount, rule.label);
 
             assert mx.getLabel() != MaxIndex.EMPTY;
@@ -183,21 +448,25 @@ public class MedriUtils {
             rule.addTest(mx.getBestAtt(), mx.getBestItem());
             rule.updateWith(mx);
 
-            Pair<Collection<int[]>, Collection<int[]>> splitResult = splitAndGetCovered(entryLines, rule, mx.bestCover);
-            notCoveredLines.addAll(splitResult.value);
-
-            entryLines = splitResult.key;
+            //covered lines of the next step are counted while splitting
+            scannedInstances += lines.entrySize();
+            grow = rule.getErrors() > 0 && avAtts.size() > 0;
+            if (grow)
+                stepCount = lines.keepAndCount(mx.getBestAtt(), mx.getBestItem(), mx.bestCover, Ints.toArray(avAtts));
+            else
+                lines.keep(mx.getBestAtt(), mx.getBestItem(), mx.bestCover);
 
-        } while (rule.getErrors() > 0 && avAtts.size() > 0);
+        } while (grow);
 
-        return new IRuleLines(rule, notCoveredLines, scannedInstances);
+        lines.commit();
+        return new IRuleLines(rule, lines, scannedInstances);
     }
 
 
-    public static IRuleLines calcStepMeDRI(int[] iattrs, Collection<int[]> lineData,
+    public static IRuleLines calcStepMeDRI(int[] iattrs, LineSet lines,
                                            int minFreq, double minConfidence) {
 
-        if (lineData.size() < minFreq) return null;
+        if (lines.size() < minFreq) return null;
 
         int labelIndex = iattrs.length - 1;
         int numLabels = iattrs[labelIndex];
@@ -208,14 +477,12 @@ public class MedriUtils {
         IRule rule = null;// new IRule(label);// Does not know the label yet
         MaxIndex mx = null;
 
-        Collection<int[]> entryLines = lineData;
-        Collection<int[]> notCoveredLines = new ArrayList<>(lineData.size());
+        lines.begin();
 
-        long scannedInstances = 0L;
+        long scannedInstances = lines.entrySize();
+        int[][][] stepCount = lines.count(Ints.toArray(avAtts));
+        boolean grow;
         do {
-            scannedInstances += 2 * entryLines.size();
-
-            int[][][] stepCount = countStep(iattrs, entryLines, Ints.toArray(avAtts));
             if (mx == null) {
                 //For the first time
                 mx = MaxIndex.ofMeDRI(stepCount, minFreq, minConfidence);
@@ -237,30 +504,42 @@ public class MedriUtils {
             rule.addTest(mx.getBestAtt(), mx.getBestItem());
             rule.updateWith(mx);
 
-            Pair<Collection<int[]>, Collection<int[]>> splitResult = splitAndGetCovered(entryLines, rule, mx.bestCover);
-            notCoveredLines.addAll(splitResult.value);
-
-            entryLines = splitResult.key;
+            //covered lines of the next step are counted while splitting
+            scannedInstances += lines.entrySize();
+            grow = rule.getErrors() > 0 && avAtts.size() > 0 && rule.getCorrect() >= minFreq;
+            if (grow)
+                stepCount = lines.keepAndCount(mx.getBestAtt(), mx.getBestItem(), mx.bestCover, Ints.toArray(avAtts));
+            else
+                lines.keep(mx.getBestAtt(), mx.getBestItem(), mx.bestCover);
 
-        } while (rule.getErrors() > 0 && avAtts.size() > 0 && rule.getCorrect() >= minFreq);
+        } while (grow);
 
         if (rule.getLenght() == 0) {//TODO more inspection is needed here
             return null;
         }
 
-        return new IRuleLines(rule, notCoveredLines, scannedInstances);
+        lines.commit();
+        return new IRuleLines(rule, lines, scannedInstances);
     }
 
     /**
      * @param iattrs   holds number of items for each attribute including the class attribute
-     * @param lineData line data, pruned at the end to NOT COVERED instances
+     * @param lines    line data, pruned at the end to NOT COVERED instances
      * @param label    label index
      * @return
      */
-    public static IRuleLines calcStepEDRI(int[] iattrs, Collection<int[]> lineData, final int label,
+    public static IRuleLines calcStepEDRI(int[] iattrs, LineSet lines, final int label,
                                           int minFreq, double minConfidence) {
+        return calcStepEDRI(iattrs, lines, label, minFreq, minConfidence, null);
+    }
+
+    /**
+     * @param cache count cubes shared by the classes of one build, or null
+     */
+    public static IRuleLines calcStepEDRI(int[] iattrs, LineSet lines, final int label,
+                                          int minFreq, double minConfidence, CountCache cache) {
 
-        if (lineData.size() < minFreq) return null;
+        if (lines.size() < minFreq) return null;
 
 
         int labelIndex = iattrs.length - 1;
@@ -272,15 +551,17 @@ public class MedriUtils {
         IRule rule = new IRule(label);
 
 
-        Collection<int[]> entryLines = lineData;
-        Collection<int[]> notCoveredLines = new ArrayList<>(lineData.size());
+        lines.begin();
 
         long scannedInstances = 0L;
-
+        int[][][] stepCount = cache == null ? null : cache.get(lines, Ints.toArray(avAtts));
+        if (stepCount == null) {
+            scannedInstances += lines.entrySize();
+            stepCount = lines.count(Ints.toArray(avAtts));
+            if (cache != null) cache.put(lines, Ints.toArray(avAtts), stepCount);
+        }
+        boolean grow;
         do {
-
-            scannedInstances += 2 * entryLines.size();
-            int[][][] stepCount = countStep(iattrs, entryLines, Ints.toArray(avAtts));
             MaxIndex mx = MaxIndex.ofSupportConfidence(stepCount,
                     rule.label, minFreq, minConfidence);
 
@@ -298,22 +579,133 @@ public class MedriUtils {
             rule.addTest(mx.getBestAtt(), mx.getBestItem());
             rule.updateWith(mx);
 
-            Pair<Collection<int[]>, Collection<int[]>> splitResult = splitAndGetCovered(entryLines, rule, mx.bestCover);
-            notCoveredLines.addAll(splitResult.value);
+            //covered lines of the next step are counted while splitting
+            scannedInstances += lines.entrySize();
+            grow = rule.getErrors() > 0 && avAtts.size() > 0 && rule.getCorrect() >= minFreq;
+            if (grow)
+                stepCount = lines.keepAndCount(mx.getBestAtt(), mx.getBestItem(), mx.bestCover, Ints.toArray(avAtts));
+            else
+                lines.keep(mx.getBestAtt(), mx.getBestItem(), mx.bestCover);
 
-            entryLines = splitResult.key;
-
-        } while (rule.getErrors() > 0 && avAtts.size() > 0 && rule.getCorrect() >= minFreq);
+        } while (grow);
 
         if (rule.getLenght() == 0) {//TODO more inspection is needed here
             return null;
         }
 
-        return new IRuleLines(rule, notCoveredLines, scannedInstances);
+        lines.commit();
+        return new IRuleLines(rule, lines, scannedInstances);
+    }
+
+
+    /**
+     * Rules of one class, with the lines they did not cover
+     */
+    static class ClassRules {
+        final List<IRule> rules = new ArrayList<>();
+        LineSet lines;
+        long scannedInstances = 0L;
+    }
+
+    /**
+     * Induces the rules of one class from its own line set, classes only share read only data
+     */
+    static class ClassTask extends RecursiveTask<ClassRules> {
+        static final long serialVersionUID = 424878435065750602L;
+
+        final int[] iattrs;
+        final int cls, clsCount;
+        final LineSet lineData;
+        final boolean prism;
+        final int minFreq;
+        final double minConfidence;
+        final CountCache cache;
+
+        /**
+         * @param lineData all the lines, the task works on its own fresh() copy made when it runs
+         */
+        ClassTask(int[] iattrs, int cls, int clsCount, LineSet lineData, boolean prism,
+                  int minFreq, double minConfidence, CountCache cache) {
+            this.iattrs = iattrs;
+            this.cls = cls;
+            this.clsCount = clsCount;
+            this.lineData = lineData;
+            this.prism = prism;
+            this.minFreq = minFreq;
+            this.minConfidence = minConfidence;
+            this.cache = cache;
+        }
+
+        @Override
+        protected ClassRules compute() {
+            logger.trace("****************************************" +
+                    "\nfor class = {}", cls);
+            int clsCounter = clsCount;
+            logger.trace("cls {} count = {}", cls, clsCounter);
+            ClassRules result = new ClassRules();
+            result.lines = lineData.fresh();
+
+            while (clsCounter > 0) {
+                IRuleLines lnrl = prism ?
+                        calcStepPrism(iattrs, result.lines, cls, cache) :
+                        calcStepEDRI(iattrs, result.lines, cls, minFreq, minConfidence, cache);
+                if (lnrl == null) break; // stop adding rules for current class. break out to the new class
+                result.scannedInstances += lnrl.scannedInstances;
+
+                logger.trace("rule {}", lnrl.rule);
+                logger.trace("remaining lines={}", lnrl.lines.size());
+
+                result.lines = lnrl.lines;
+                clsCounter -= lnrl.rule.getCorrect();
+                logger.trace("took {} , remains {} instances",
+                        lnrl.rule.getCorrect(), clsCounter);
+                result.rules.add(lnrl.rule);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Only the last class with rules keeps its remaining lines, which the default rule
+     * needs, the lines of the other classes are dropped as soon as they are done with.
+     *
+     * @param pool runs the tasks in parallel, or null to run them one after the other
+     * @return rules of each task, in task order whatever the pool
+     */
+    static ClassRules[] induceClasses(ClassTask[] tasks, ForkJoinPool pool) {
+        ClassRules[] result = new ClassRules[tasks.length];
+        if (pool != null) {
+            for (ClassTask task : tasks) pool.execute(task);
+        }
+        ClassRules last = null;
+        for (int i = 0; i < tasks.length; i++) {
+            result[i] = pool == null ? tasks[i].compute() : tasks[i].join();
+            if (result[i].rules.isEmpty()) {
+                result[i].lines = null;
+                continue;
+            }
+            if (last != null) last.lines = null;
+            last = result[i];
+        }
+        return result;
     }
 
+    /**
+     * Counts the first cube of every class once, before the classes start, so that classes
+     * induced in parallel find it in the cache instead of each counting it
+     *
+     * @return number of lines counted
+     */
+    static long countRoot(int[] iattrs, LineSet lineData, CountCache cache) {
+        int[] avAtts = new int[iattrs.length - 1];
+        for (int i = 0; i < avAtts.length; i++) avAtts[i] = i;
+        LineSet lines = lineData.fresh();
+        lines.begin();
+        cache.put(lines, avAtts, lines.count(avAtts));
+        return lines.entrySize();
+    }
 
-    public static MeDRIResult buildClassifierMeDRI(int[] iattrs, int[] labelsCount, Collection<int[]> lineData,
+    public static MeDRIResult buildClassifierMeDRI(int[] iattrs, int[] labelsCount, LineSet lineData,
                                                    int minFreq, double minConfidence, boolean addDefaultRule) {
         List<IRule> rules = new ArrayList<>();
         long scannedInstance = 0L;
@@ -324,10 +716,10 @@ public class MedriUtils {
 
         int lineDataSize = lineData.size();
 
-        Collection<int[]> remainingLines = null;
+        LineSet remainingLines = null;
 
 
-        Collection<int[]> lines = lineData;//new ArrayList<>(lineData);//defensive copy
+        LineSet lines = lineData.fresh();
 
 
         while (lineDataSize > 0) {
@@ -351,7 +743,7 @@ public class MedriUtils {
         if (addDefaultRule) {
             if (remainingLines != null && remainingLines.size() > 0) {
                 scannedInstance += remainingLines.size();
-                IRule rule = getDefaultRule(remainingLines, labelIndex, numLabels);
+                IRule rule = getDefaultRule(remainingLines.labelsCount());
                 rules.add(rule);
             }
         }
@@ -364,44 +756,41 @@ public class MedriUtils {
         return result;
     }
 
-    public static MeDRIResult buildClassifierEDRI(int[] iattrs, int[] labelsCount, Collection<int[]> lineData,
+    public static MeDRIResult buildClassifierEDRI(int[] iattrs, int[] labelsCount, LineSet lineData,
                                                   int minFreq, double minConfidence, boolean addDefaultRule) {
+        return buildClassifierEDRI(iattrs, labelsCount, lineData, minFreq, minConfidence, addDefaultRule, null);
+    }
+
+    /**
+     * @param pool pool inducing the classes in parallel, or null for one class after the other
+     */
+    public static MeDRIResult buildClassifierEDRI(int[] iattrs, int[] labelsCount, LineSet lineData,
+                                                  int minFreq, double minConfidence, boolean addDefaultRule,
+                                                  ForkJoinPool pool) {
         List<IRule> rules = new ArrayList<>();
         long scannedInstances = 0L;
 
         int labelIndex = iattrs.length - 1;
         int numLabels = iattrs[labelIndex];
 
-        Collection<int[]> remainingLines = null;
+        CountCache cache = new CountCache();
+        scannedInstances += countRoot(iattrs, lineData, cache);
+        ClassTask[] tasks = new ClassTask[numLabels];
         for (int cls = 0; cls < numLabels; cls++) {
-            logger.trace("****************************************" +
-                    "\nfor class = {}", cls);
-            int clsCounter = labelsCount[cls];
-            logger.trace("cls {} count = {}", cls, clsCounter);
-            Collection<int[]> lines = lineData;//new ArrayList<>(lineData);//defensive copy
-
-
-            while (clsCounter > 0) {
-                IRuleLines lnrl = calcStepEDRI(iattrs, lines, cls, minFreq, minConfidence);
-                if (lnrl == null) break; // stop adding rules for current class. break out to the new class
-                scannedInstances += lnrl.scannedInstances;
-
-
-                logger.trace("rule {}", lnrl.rule);
-                logger.trace("remaining lines={}", lnrl.lines.size());
+            tasks[cls] = new ClassTask(iattrs, cls, labelsCount[cls], lineData,
+                    false, minFreq, minConfidence, cache);
+        }
 
-                lines = lnrl.lines;
-                remainingLines = lines;
-                clsCounter -= lnrl.rule.getCorrect();
-                logger.trace("took {} , remains {} instances",
-                        lnrl.rule.getCorrect(), clsCounter);
-                rules.add(lnrl.rule);
-            }
+        LineSet remainingLines = null;
+        for (ClassRules classRules : induceClasses(tasks, pool)) {
+            rules.addAll(classRules.rules);
+            scannedInstances += classRules.scannedInstances;
+            if (classRules.rules.size() > 0) remainingLines = classRules.lines;
         }
         if (addDefaultRule) {
             if (remainingLines != null && remainingLines.size() > 0) {
                 scannedInstances += remainingLines.size();
-                IRule rule = getDefaultRule(remainingLines, labelIndex, numLabels);
+                IRule rule = getDefaultRule(remainingLines.labelsCount());
                 rules.add(rule);
             }
         }
@@ -416,51 +805,55 @@ public class MedriUtils {
 
 
     public static MeDRIResult buildClassifierPrism(int[] iattrs, int[] labelsCount,
-                                                   Collection<int[]> lineData, boolean addDefaultRule) {
+                                                   LineSet lineData, boolean addDefaultRule) {
+        return buildClassifierPrism(iattrs, labelsCount, lineData, addDefaultRule, null);
+    }
+
+    /**
+     * @param pool pool inducing the classes in parallel, or null for one class after the other
+     */
+    public static MeDRIResult buildClassifierPrism(int[] iattrs, int[] labelsCount,
+                                                   LineSet lineData, boolean addDefaultRule,
+                                                   ForkJoinPool pool) {
         List<IRule> rules = new ArrayList<>();
         long scannedInstances = 0L;
         int labelIndex = iattrs.length - 1;
         int numLabels = iattrs[labelIndex];
 
+        CountCache cache = new CountCache();
+        scannedInstances += countRoot(iattrs, lineData, cache);
+        ClassTask[] tasks = new ClassTask[numLabels];
         for (int cls = 0; cls < numLabels; cls++) {
-            logger.trace("****************************************" +
-                    "\nfor class = {}", cls);
-            int clsCounter = labelsCount[cls];
-            logger.trace("cls {} count = {}", cls, clsCounter);
-            Collection<int[]> lines = lineData;//new ArrayList<>(lineData);//defensive copy
-
-            while (clsCounter > 0) {
-                IRuleLines lnrl = calcStepPrism(iattrs, lines, cls);
-                scannedInstances += lnrl.scannedInstances;
-                logger.trace("rule {}", lnrl.rule);
-                logger.trace("remaining lines={}", lnrl.lines.size());
+            tasks[cls] = new ClassTask(iattrs, cls, labelsCount[cls], lineData,
+                    true, 0, 0, cache);
+        }
 
-                lines = lnrl.lines;
-                clsCounter -= lnrl.rule.getCorrect();
-                logger.trace("took {} , remains {} instances",
-                        lnrl.rule.getCorrect(), clsCounter);
-                rules.add(lnrl.rule);
-            }
+        for (ClassRules classRules : induceClasses(tasks, pool)) {
+            rules.addAll(classRules.rules);
+            scannedInstances += classRules.scannedInstances;
         }
 
         if (addDefaultRule) {
-            Collection<int[]> lines = new ArrayList<>();
-            for (int[] line : lineData) {
+            ILines allLines = lineData.getLineData();
+            int[] freqs = new int[numLabels];
+            int notCovered = 0;
+            for (int line = 0; line < allLines.numLines(); line++) {
                 boolean isCovered = false;
                 for (IRule rule : rules) {
-                    int cls = rule.classify(line);
+                    int cls = rule.classify(allLines, line);
                     if (cls != IRule.EMPTY) {
                         isCovered = true;
                         break;
                     }
                 }
                 if (!isCovered) {
-                    lines.add(line);
+                    allLines.addLabelsCount(line, freqs);
+                    notCovered++;
                 }
             }
-            if (lines.size() > 0) {
-                scannedInstances += lines.size();
-                rules.add(getDefaultRule(lines, labelIndex, numLabels));
+            if (notCovered > 0) {
+                scannedInstances += notCovered;
+                rules.add(getDefaultRule(freqs));
             }
         }
 //        return rules;
@@ -474,16 +867,10 @@ public class MedriUtils {
     /**
      * Gets the majority class of the remaining instances as DRIRule
      *
-     * @param lines
-     * @param labelIndex
-     * @param numLabels
+     * @param freqs label frequencies of the remaining instances
      * @return
      */
-    private static IRule getDefaultRule(Collection<int[]> lines, int labelIndex, int numLabels) {
-        int[] freqs = new int[numLabels];
-        for (int[] line : lines) {
-            freqs[line[labelIndex]]++;
-        }
+    static IRule getDefaultRule(int[] freqs) {
 
         int maxVal = Integer.MIN_VALUE;
         int maxIndex = Integer.MIN_VALUE;
@@ -509,12 +896,12 @@ public class MedriUtils {
         System.out.println(data.numInstances());
         int[] iattrs = MedriUtils.mapAttributes(data);
 
-        Pair<Collection<int[]>, int[]> linesLabels = MedriUtils.mapIdataAndLabels(data);
-        Collection<int[]> lineData = linesLabels.key;
+        Pair<ILines, int[]> linesLabels = MedriUtils.mapIdataAndLabels(data);
+        ILines lineData = linesLabels.key;
         int[] labelsCount = linesLabels.value;
 
-        logger.trace("original lines size = {}", lineData.size());
-        List<IRule> rules = buildClassifierPrism(iattrs, labelsCount, lineData, true).getRules();
+        logger.trace("original lines size = {}", lineData.numLines());
+        List<IRule> rules = buildClassifierPrism(iattrs, labelsCount, new IndexLineSet(lineData, null), true).getRules();
 
         logger.info("rules generated =\n{}", Joiner.on("\n").join(rules));
 
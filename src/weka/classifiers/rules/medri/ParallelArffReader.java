@@ -0,0 +1,348 @@
+package weka.classifiers.rules.medri;
+
+import com.google.common.hash.Hasher;
+import weka.core.Instances;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Reads a nominal ARFF file into {@link ILines} with several threads, same lines as
+ * {@link LinesReader}.
+ * <p>
+ * The header is read by LinesReader. The data section is memory mapped in chunks of about
+ * CHUNK_BYTES, cut at line ends, and every chunk is decoded by its own task into a block
+ * of columns. Values are looked up straight from the mapped bytes in per attribute hash
+ * tables of the UTF-8 bytes of the declared values; only lines holding quotes or sparse
+ * instances are decoded to strings. The blocks are then copied, in file order, into the
+ * final columns. A hasher given to read() gets the bytes of the file, in order, from the
+ * mapped chunks while they are decoded.
+ */
+public class ParallelArffReader {
+
+    static final int CHUNK_BYTES = 1 << 23;
+
+    private final File file;
+    private final LinesReader reader = new LinesReader();
+    private ValueTable[] tables;
+    private int numAtts;
+
+    private ParallelArffReader(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @param pool pool decoding the chunks, or null to decode them on the calling thread
+     */
+    public static EncodedDataset read(File file, ForkJoinPool pool) throws IOException {
+        return read(file, pool, null);
+    }
+
+    /**
+     * @param hasher receives every byte of the file, or null
+     */
+    public static EncodedDataset read(File file, ForkJoinPool pool, Hasher hasher) throws IOException {
+        return new ParallelArffReader(file).read(pool, hasher);
+    }
+
+    private EncodedDataset read(ForkJoinPool pool, Hasher hasher) throws IOException {
+        long dataStart;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16)) {
+            dataStart = reader.readHeader(in);
+        }
+        numAtts = reader.numAttributes();
+        tables = new ValueTable[numAtts];
+        int[] iattrs = new int[numAtts];
+        for (int att = 0; att < numAtts; att++) {
+            tables[att] = new ValueTable(reader.values(att));
+            iattrs[att] = reader.values(att).size();
+        }
+
+        List<Block> blocks;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            List<ChunkTask> tasks = new ArrayList<>();
+            long size = channel.size();
+            for (long start = dataStart; start < size; ) {
+                long end = lineEnd(channel, Math.min(size, start + CHUNK_BYTES), size);
+                tasks.add(new ChunkTask(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start), start, iattrs));
+                start = end;
+            }
+            if (hasher != null) hash(channel.map(FileChannel.MapMode.READ_ONLY, 0, dataStart), hasher);
+            blocks = decode(tasks, pool, hasher);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        int numLines = 0;
+        for (Block block : blocks) numLines += block.numLines;
+        IColumn.Writable[] columns = new IColumn.Writable[numAtts];
+        for (int att = 0; att < numAtts; att++) {
+            IColumn.Writable column = IColumn.of(iattrs[att], numLines);
+            int line = 0;
+            for (Block block : blocks) {
+                IColumn values = block.columns[att];
+                block.columns[att] = null;
+                for (int i = 0; i < block.numLines; i++) column.set(line++, values.get(i));
+            }
+            columns[att] = column;
+        }
+        Instances header = reader.header();
+        return EncodedDataset.of(header, new ILines(iattrs, columns, numLines));
+    }
+
+    /**
+     * @param hasher gets the chunks in order while they are decoded, or null
+     */
+    private static List<Block> decode(List<ChunkTask> tasks, ForkJoinPool pool, Hasher hasher) {
+        List<Block> result = new ArrayList<>(tasks.size());
+        if (pool == null) {
+            for (ChunkTask task : tasks) {
+                result.add(task.compute());
+                if (hasher != null) hash(task.bytes, hasher);
+            }
+            return result;
+        }
+        if (ForkJoinTask.inForkJoinPool()) for (ChunkTask task : tasks) task.fork();
+        else for (ChunkTask task : tasks) pool.execute(task);
+        if (hasher != null) for (ChunkTask task : tasks) hash(task.bytes, hasher);
+        for (ChunkTask task : tasks) result.add(task.join());
+        return result;
+    }
+
+    /**
+     * Puts all the bytes of a chunk into hasher, reading them through a view of its own
+     */
+    private static void hash(ByteBuffer bytes, Hasher hasher) {
+        ByteBuffer view = bytes.duplicate();
+        view.clear();
+        byte[] buffer = new byte[1 << 16];
+        while (view.hasRemaining()) {
+            int n = Math.min(buffer.length, view.remaining());
+            view.get(buffer, 0, n);
+            hasher.putBytes(buffer, 0, n);
+        }
+    }
+
+    /**
+     * @return offset just after the first line end at or after from, size if there is none
+     */
+    private static long lineEnd(FileChannel channel, long from, long size) throws IOException {
+        ByteBuffer window = ByteBuffer.allocate(1 << 16);
+        for (long at = from; at < size; at += window.limit()) {
+            window.clear();
+            channel.read(window, at);
+            window.flip();
+            for (int i = 0; i < window.limit(); i++)
+                if (window.get(i) == '\n') return at + i + 1;
+        }
+        return size;
+    }
+
+    /**
+     * Lines of one chunk, one column per attribute
+     */
+    private static final class Block {
+        final IColumn.Writable[] columns;
+        int numLines;
+
+        Block(IColumn.Writable[] columns) {
+            this.columns = columns;
+        }
+    }
+
+    private final class ChunkTask extends RecursiveTask<Block> {
+        static final long serialVersionUID = 424878435065750604L;
+
+        final ByteBuffer bytes;
+        final long offset;
+        final int[] iattrs;
+        final List<String> tokens = new ArrayList<>();
+
+        ChunkTask(ByteBuffer bytes, long offset, int[] iattrs) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.iattrs = iattrs;
+        }
+
+        @Override
+        protected Block compute() {
+            int limit = bytes.limit();
+            int maxLines = 1;
+            for (int i = 0; i < limit; i++) if (bytes.get(i) == '\n') maxLines++;
+            IColumn.Writable[] columns = new IColumn.Writable[numAtts];
+            for (int att = 0; att < numAtts; att++) columns[att] = IColumn.of(iattrs[att], maxLines);
+            Block block = new Block(columns);
+
+            int start = 0;
+            while (start < limit) {
+                int end = start;
+                while (end < limit && bytes.get(end) != '\n') end++;
+                try {
+                    line(start, end, block);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                start = end + 1;
+            }
+            return block;
+        }
+
+        private void line(int from, int to, Block block) throws IOException {
+            while (from < to && isSpace(bytes.get(from))) from++;
+            while (to > from && isSpace(bytes.get(to - 1))) to--;
+            if (from == to || bytes.get(from) == '%') return;
+            boolean slow = bytes.get(from) == '{';
+            for (int i = from; i < to && !slow; i++) {
+                byte b = bytes.get(i);
+                slow = b == '\'' || b == '"';
+            }
+            if (slow) {
+                slowLine(from, to, block);
+                return;
+            }
+
+            int line = block.numLines;
+            int att = 0;
+            for (int start = from; start <= to; att++) {
+                int end = start;
+                while (end < to && bytes.get(end) != ',') end++;
+                int s = start, e = end;
+                while (s < e && isSpace(bytes.get(s))) s++;
+                while (e > s && isSpace(bytes.get(e - 1))) e--;
+                if (att >= numAtts) {
+                    //an instance weight {w} may follow the values
+                    if (att == numAtts && s < e && bytes.get(s) == '{') break;
+                    throw error(from, (att + 1) + " values or more instead of " + numAtts);
+                }
+                int code;
+                if (e - s == 1 && bytes.get(s) == '?') code = 0;
+                else if ((code = tables[att].get(bytes, s, e)) < 0)
+                    throw error(from, "Unknown value " + string(s, e) + " of attribute " + att);
+                block.columns[att].set(line, code);
+                start = end + 1;
+            }
+            if (att < numAtts) throw error(from, att + " values instead of " + numAtts);
+            block.numLines++;
+        }
+
+        /**
+         * Lines holding quotes or sparse instances, decoded as LinesReader does
+         */
+        private void slowLine(int from, int to, Block block) throws IOException {
+            String text = string(from, to);
+            int line = block.numLines;
+            if (text.startsWith("{")) {
+                int close = text.indexOf('}');
+                if (close < 0) throw error(from, "Unterminated sparse instance");
+                LinesReader.split(text.substring(1, close), ',', tokens);
+                int next = 0;
+                for (String token : tokens) {
+                    if (token.isEmpty()) continue;
+                    int space = 0;
+                    while (space < token.length() && !Character.isWhitespace(token.charAt(space))) space++;
+                    int att;
+                    try {
+                        att = Integer.parseInt(token.substring(0, space));
+                    } catch (NumberFormatException e) {
+                        throw error(from, "Bad sparse value " + token);
+                    }
+                    if (att < next || att >= numAtts) throw error(from, "Bad sparse index " + att);
+                    for (; next < att; next++) block.columns[next].set(line, 0);
+                    block.columns[att].set(line, code(att, LinesReader.unquote(token.substring(space).trim()), from));
+                    next = att + 1;
+                }
+                for (; next < numAtts; next++) block.columns[next].set(line, 0);
+            } else {
+                LinesReader.split(text, ',', tokens);
+                if (tokens.size() == numAtts + 1 && tokens.get(numAtts).startsWith("{")) tokens.remove(numAtts);
+                if (tokens.size() != numAtts) throw error(from, tokens.size() + " values instead of " + numAtts);
+                for (int att = 0; att < numAtts; att++) block.columns[att].set(line, code(att, tokens.get(att), from));
+            }
+            block.numLines++;
+        }
+
+        private int code(int att, String value, int at) throws IOException {
+            if ("?".equals(value)) return 0;
+            Integer code = reader.codes(att).get(value);
+            if (code == null) throw error(at, "Unknown value " + value + " of attribute " + att);
+            return code;
+        }
+
+        private String string(int from, int to) {
+            byte[] b = new byte[to - from];
+            for (int i = 0; i < b.length; i++) b[i] = bytes.get(from + i);
+            return new String(b, StandardCharsets.UTF_8);
+        }
+
+        private IOException error(int at, String message) {
+            return new IOException(message + ", line at byte " + (offset + at));
+        }
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    /**
+     * Open addressing table from the UTF-8 bytes of the values of one attribute to their code
+     */
+    static final class ValueTable {
+        private static final int FNV_BASIS = 0x811C9DC5, FNV_PRIME = 0x01000193;
+
+        private final byte[][] keys;
+        /**
+         * code + 1 of the value in each slot, 0 for empty slots
+         */
+        private final int[] slots;
+        private final int mask;
+
+        ValueTable(List<String> values) {
+            int capacity = Integer.highestOneBit(Math.max(2, values.size() * 2 - 1)) << 1;
+            keys = new byte[capacity][];
+            slots = new int[capacity];
+            mask = capacity - 1;
+            for (int code = 0; code < values.size(); code++) {
+                byte[] key = values.get(code).getBytes(StandardCharsets.UTF_8);
+                int slot = hash(key, 0, key.length) & mask;
+                while (slots[slot] != 0 && !Arrays.equals(keys[slot], key)) slot = (slot + 1) & mask;
+                //a duplicated value keeps its last code, as in LinesReader
+                keys[slot] = key;
+                slots[slot] = code + 1;
+            }
+        }
+
+        /**
+         * @return code of the value in bytes[from, to), -1 if it is not a value
+         */
+        int get(ByteBuffer bytes, int from, int to) {
+            int h = FNV_BASIS;
+            for (int i = from; i < to; i++) h = (h ^ (bytes.get(i) & 0xFF)) * FNV_PRIME;
+            for (int slot = h & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+                byte[] key = keys[slot];
+                if (key.length != to - from) continue;
+                int i = 0;
+                while (i < key.length && key[i] == bytes.get(from + i)) i++;
+                if (i == key.length) return slots[slot] - 1;
+            }
+            return -1;
+        }
+
+        /**
+         * FNV-1a, also computed inline by get()
+         */
+        static int hash(byte[] key, int from, int to) {
+            int h = FNV_BASIS;
+            for (int i = from; i < to; i++) h = (h ^ (key[i] & 0xFF)) * FNV_PRIME;
+            return h;
+        }
+    }
+}
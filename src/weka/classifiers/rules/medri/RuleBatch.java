@@ -0,0 +1,137 @@
+package weka.classifiers.rules.medri;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Classifies a block of {@link ILines} rule by rule, same labels as trying the rules in
+ * order on every line.
+ * <p>
+ * The lines are bucketed once by the item of every attribute some rule tests first. A
+ * rule only reads the bucket of its first test, drops the lines covered by previous rules
+ * from it, then filters the rest one test at a time over the column of the tested
+ * attribute and labels what is left.
+ * <p>
+ * Blocks are classified in chunks of BLOCK_CHUNK lines, in parallel with a pool.
+ */
+public class RuleBatch {
+
+    static final int BLOCK_CHUNK = 1 << 14;
+
+    private final int[] labels;
+    /**
+     * tests of rule r are testAtt/testVal[testStart[r], testStart[r + 1])
+     */
+    private final int[] testStart, testAtt, testVal;
+
+    public RuleBatch(RuleSet rules) {
+        this.labels = rules.labels();
+        this.testStart = rules.testStart();
+        this.testAtt = rules.testAtt();
+        this.testVal = rules.testVal();
+    }
+
+    /**
+     * @param pool pool classifying chunks of large blocks in parallel, or null
+     * @return label of each line, IRule.EMPTY for lines no rule covers
+     */
+    public int[] classify(ILines lines, ForkJoinPool pool) {
+        int[] result = new int[lines.numLines()];
+        if (pool == null || result.length < 2 * BLOCK_CHUNK) {
+            for (int from = 0; from < result.length; from += BLOCK_CHUNK)
+                classify(lines, from, Math.min(result.length, from + BLOCK_CHUNK), result);
+        } else {
+            BatchTask task = new BatchTask(lines, 0, result.length, result);
+            if (ForkJoinTask.inForkJoinPool()) task.invoke();
+            else pool.invoke(task);
+        }
+        return result;
+    }
+
+    /**
+     * Fills result[from, to) with the labels of lines [from, to)
+     */
+    public void classify(ILines lines, int from, int to, int[] result) {
+        int n = to - from;
+        for (int line = from; line < to; line++) result[line] = IRule.EMPTY;
+
+        //lines of each item of the attributes tested first by some rule:
+        //buckets[att][bucketStart[att][val], bucketStart[att][val] + bucketSize[att][val])
+        int numAtts = lines.iattrs.length;
+        int[][] buckets = new int[numAtts][], bucketStart = new int[numAtts][], bucketSize = new int[numAtts][];
+        int[] covered = new int[n];
+
+        for (int r = 0; r < labels.length; r++) {
+            int start = testStart[r], end = testStart[r + 1];
+            if (start == end) {
+                //covers all the lines left
+                for (int line = from; line < to; line++)
+                    if (result[line] == IRule.EMPTY) result[line] = labels[r];
+                return;
+            }
+
+            int att = testAtt[start], val = testVal[start];
+            if (buckets[att] == null) bucket(lines.column(att), lines.iattrs[att], from, to, att,
+                    buckets, bucketStart, bucketSize);
+            if (val >= bucketSize[att].length) continue;
+
+            //drop the lines covered since, then check the other tests
+            int[] bucket = buckets[att];
+            int first = bucketStart[att][val], size = 0;
+            for (int i = first, last = first + bucketSize[att][val]; i < last; i++) {
+                int line = bucket[i];
+                if (result[line] == IRule.EMPTY) bucket[first + size++] = line;
+            }
+            bucketSize[att][val] = size;
+            if (size == 0) continue;
+
+            System.arraycopy(bucket, first, covered, 0, size);
+            int c = size;
+            for (int t = start + 1; t < end && c > 0; t++)
+                c = lines.column(testAtt[t]).select(covered, c, testVal[t], covered);
+            for (int i = 0; i < c; i++) result[covered[i]] = labels[r];
+        }
+    }
+
+    /**
+     * Sorts lines [from, to) by their item of att, in line order within an item
+     */
+    private static void bucket(IColumn column, int numItems, int from, int to, int att,
+                               int[][] buckets, int[][] bucketStart, int[][] bucketSize) {
+        int[] size = new int[numItems], start = new int[numItems];
+        for (int line = from; line < to; line++) size[column.get(line)]++;
+        for (int v = 1; v < numItems; v++) start[v] = start[v - 1] + size[v - 1];
+        int[] bucket = new int[to - from];
+        int[] fill = start.clone();
+        for (int line = from; line < to; line++) bucket[fill[column.get(line)]++] = line;
+        buckets[att] = bucket;
+        bucketStart[att] = start;
+        bucketSize[att] = size;
+    }
+
+    private class BatchTask extends RecursiveAction {
+        static final long serialVersionUID = 424878435065750603L;
+
+        final ILines lines;
+        final int from, to;
+        final int[] result;
+
+        BatchTask(ILines lines, int from, int to, int[] result) {
+            this.lines = lines;
+            this.from = from;
+            this.to = to;
+            this.result = result;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from < 2 * BLOCK_CHUNK) {
+                classify(lines, from, to, result);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new BatchTask(lines, from, mid, result), new BatchTask(lines, mid, to, result));
+        }
+    }
+}
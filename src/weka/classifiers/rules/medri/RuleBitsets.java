@@ -0,0 +1,79 @@
+package weka.classifiers.rules.medri;
+
+import java.util.Arrays;
+
+/**
+ * Classifies a block of {@link ILines} rule by rule over {@link IBitmaps}: the lines a
+ * rule takes are pending AND the bitsets of its items, they get its label and leave
+ * pending (pending &amp;= ~covered). Same labels as trying the rules in order on every line.
+ * <p>
+ * Only the words between the first and the last non empty word of pending are visited,
+ * so lines claimed by earlier rules cost nothing once their words are cleared.
+ */
+public class RuleBitsets {
+
+    private final int[] labels;
+    /**
+     * tests of rule r are testAtt/testVal[testStart[r], testStart[r + 1])
+     */
+    private final int[] testStart, testAtt, testVal;
+
+    public RuleBitsets(RuleSet rules) {
+        labels = rules.labels();
+        testStart = rules.testStart();
+        testAtt = rules.testAtt();
+        testVal = rules.testVal();
+    }
+
+    /**
+     * @param lines unweighted lines
+     * @return label of each line, IRule.EMPTY for lines no rule covers
+     */
+    public int[] classify(ILines lines) {
+        boolean[] used = new boolean[lines.iattrs.length];
+        for (int att : testAtt) used[att] = true;
+        return classify(new IBitmaps(lines, used));
+    }
+
+    /**
+     * @param bitmaps bitsets of the lines, at least for the tested attributes
+     * @return label of each line, IRule.EMPTY for lines no rule covers
+     */
+    public int[] classify(IBitmaps bitmaps) {
+        int[] result = new int[bitmaps.lineData.numLines()];
+        Arrays.fill(result, IRule.EMPTY);
+        int[] iattrs = bitmaps.lineData.iattrs;
+
+        long[] pending = bitmaps.allLines();
+        int lo = 0, hi = pending.length;
+        long[][] items = new long[iattrs.length][];
+
+        for (int r = 0; r < labels.length && lo < hi; r++) {
+            int label = labels[r];
+            int start = testStart[r], numTests = testStart[r + 1] - start;
+
+            boolean empty = false;
+            for (int t = 0; t < numTests; t++) {
+                int att = testAtt[start + t], val = testVal[start + t];
+                if (val >= iattrs[att]) {
+                    empty = true;
+                    break;
+                }
+                items[t] = bitmaps.item(att, val);
+            }
+            if (empty) continue;
+
+            for (int w = lo; w < hi; w++) {
+                long covered = pending[w];
+                for (int t = 0; t < numTests && covered != 0; t++) covered &= items[t][w];
+                if (covered == 0) continue;
+                pending[w] &= ~covered;
+                for (long m = covered; m != 0; m &= m - 1)
+                    result[(w << 6) + Long.numberOfTrailingZeros(m)] = label;
+            }
+            while (lo < hi && pending[lo] == 0) lo++;
+            while (hi > lo && pending[hi - 1] == 0) hi--;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,302 @@
+package weka.classifiers.rules.medri;
+
+import weka.classifiers.rules.MeDRI;
+import weka.classifiers.rules.eDRI;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.util.*;
+
+/**
+ * Ordered rule list compiled into a decision DAG branching on attribute items, giving the
+ * label of the first rule covering an instance. Classifying costs one lookup per node on
+ * the path instead of trying the rules one after the other.
+ * <p>
+ * Nodes are flat in one int array: a branch at offset o is
+ * [att, numVals, default child, child of item 0, ..., child of item numVals - 1],
+ * items outside [0, numVals) go to the default child. A negative child is a leaf of
+ * code -(label + 2), so -1 is the leaf of IRule.EMPTY.
+ * <p>
+ * A state is the list of rules still able to cover the instance, each with its tests not
+ * checked yet. It branches on the first untested attribute of its first rule and equal
+ * states share their node. Compiling may blow up on long lists of unrelated rules,
+ * hence the maxNodes limit. The tests left of a rule are a mask in the low half of a
+ * long, so rules of more than MAX_TESTS tests are not compiled either.
+ */
+public class RuleDag {
+
+    /**
+     * most tests of a rule the DAG can be built for
+     */
+    public static final int MAX_TESTS = 32;
+
+    private final int[] nodes;
+    private final int root;
+    private final int numNodes;
+
+    private RuleDag(int[] nodes, int root, int numNodes) {
+        this.nodes = nodes;
+        this.root = root;
+        this.numNodes = numNodes;
+    }
+
+    public static int leaf(int label) {
+        return -(label + 2);
+    }
+
+    public int numNodes() {
+        return numNodes;
+    }
+
+    /**
+     * @return length of the node array
+     */
+    public int size() {
+        return nodes.length;
+    }
+
+    /**
+     * @param cond item of each attribute
+     * @return label of the first rule covering cond, IRule.EMPTY if none does
+     */
+    public int classify(int[] cond) {
+        int node = root;
+        while (node >= 0) {
+            int val = cond[nodes[node]];
+            node = val >= 0 && val < nodes[node + 1] ? nodes[node + 3 + val] : nodes[node + 2];
+        }
+        return -node - 2;
+    }
+
+    public int classify(Instance inst) {
+        int node = root;
+        while (node >= 0) {
+            int val = (int) inst.value(nodes[node]);
+            node = val >= 0 && val < nodes[node + 1] ? nodes[node + 3 + val] : nodes[node + 2];
+        }
+        return -node - 2;
+    }
+
+    /**
+     * @return number of tests checked to classify cond, the depth of its leaf
+     */
+    public int pathLength(int[] cond) {
+        int result = 0;
+        int node = root;
+        while (node >= 0) {
+            int val = cond[nodes[node]];
+            node = val >= 0 && val < nodes[node + 1] ? nodes[node + 3 + val] : nodes[node + 2];
+            result++;
+        }
+        return result;
+    }
+
+    /**
+     * @param maxNodes maximum number of branch nodes
+     * @return compiled rules, null if more than maxNodes nodes are needed or a rule has
+     * more than MAX_TESTS tests
+     */
+    public static RuleDag of(RuleSet rules, int maxNodes) {
+        int numRules = rules.numRules();
+        int[][] atts = new int[numRules][], vals = new int[numRules][];
+        int[] labels = new int[numRules];
+        for (int r = 0; r < numRules; r++) {
+            int length = rules.length(r);
+            atts[r] = new int[length];
+            vals[r] = new int[length];
+            for (int t = 0; t < length; t++) {
+                atts[r][t] = rules.testAtt(r, t);
+                vals[r][t] = rules.testVal(r, t);
+            }
+            labels[r] = rules.label(r);
+        }
+        return compile(atts, vals, labels, maxNodes);
+    }
+
+    /**
+     * @param atts   tested attributes of each rule, in rule order
+     * @param vals   tested items, parallel to atts
+     * @param labels label of each rule
+     * @return compiled rules, null if more than maxNodes nodes are needed or a rule has
+     * more than MAX_TESTS tests
+     */
+    public static RuleDag compile(int[][] atts, int[][] vals, int[] labels, int maxNodes) {
+        for (int[] a : atts)
+            if (a.length > MAX_TESTS) return null;
+        Compiler compiler = new Compiler(atts, vals, labels, maxNodes);
+
+        long[] start = new long[labels.length];
+        int n = 0;
+        for (int r = 0; r < labels.length; r++) {
+            start[n++] = state(r, (1L << atts[r].length) - 1);
+            if (atts[r].length == 0) break;
+        }
+        int root = compiler.node(Arrays.copyOf(start, n));
+        if (root == Compiler.TOO_LARGE) return null;
+        return new RuleDag(Arrays.copyOf(compiler.nodes, compiler.size), root, compiler.numNodes);
+    }
+
+    /**
+     * rule index in the high half, mask of its tests still to check in the low one
+     */
+    private static long state(int rule, long tests) {
+        return ((long) rule << 32) | tests;
+    }
+
+    private static class Compiler {
+        static final int TOO_LARGE = Integer.MIN_VALUE;
+
+        final int[][] atts, vals;
+        final int[] labels;
+        final int maxNodes;
+        final Map<StateKey, Integer> memo = new HashMap<>();
+        int[] nodes = new int[64];
+        int size = 0, numNodes = 0;
+
+        Compiler(int[][] atts, int[][] vals, int[] labels, int maxNodes) {
+            this.atts = atts;
+            this.vals = vals;
+            this.labels = labels;
+            this.maxNodes = maxNodes;
+        }
+
+        /**
+         * @param state rules still able to cover, in rule order, only the last one may have no test left
+         * @return child code of the state
+         */
+        int node(long[] state) {
+            if (state.length == 0) return leaf(IRule.EMPTY);
+            int first = (int) (state[0] >>> 32);
+            long firstTests = state[0] & 0xFFFFFFFFL;
+            if (firstTests == 0) return leaf(labels[first]);
+
+            StateKey key = new StateKey(state);
+            Integer known = memo.get(key);
+            if (known != null) return known;
+            if (numNodes >= maxNodes) return TOO_LARGE;
+
+            int att = atts[first][Long.numberOfTrailingZeros(firstTests)];
+            int numVals = 0;
+            for (long s : state) {
+                int r = (int) (s >>> 32);
+                for (long m = s & 0xFFFFFFFFL; m != 0; m &= m - 1) {
+                    int t = Long.numberOfTrailingZeros(m);
+                    if (atts[r][t] == att) numVals = Math.max(numVals, vals[r][t] + 1);
+                }
+            }
+
+            int children[] = new int[numVals + 1];
+            children[0] = node(branch(state, att, -1));
+            if (children[0] == TOO_LARGE) return TOO_LARGE;
+            for (int val = 0; val < numVals; val++) {
+                children[val + 1] = node(branch(state, att, val));
+                if (children[val + 1] == TOO_LARGE) return TOO_LARGE;
+            }
+
+            int offset = size;
+            ensure(size + 3 + numVals);
+            nodes[size++] = att;
+            nodes[size++] = numVals;
+            for (int child : children) nodes[size++] = child;
+            numNodes++;
+            memo.put(key, offset);
+            return offset;
+        }
+
+        /**
+         * @param val item of att, -1 for any item no rule tests
+         * @return state once att = val is known
+         */
+        long[] branch(long[] state, int att, int val) {
+            long[] result = new long[state.length];
+            int n = 0;
+            for (long s : state) {
+                int r = (int) (s >>> 32);
+                long tests = s & 0xFFFFFFFFL;
+                boolean dropped = false;
+                for (long m = tests; m != 0; m &= m - 1) {
+                    int t = Long.numberOfTrailingZeros(m);
+                    if (atts[r][t] != att) continue;
+                    if (vals[r][t] != val) {
+                        dropped = true;
+                        break;
+                    }
+                    tests &= ~(1L << t);
+                }
+                if (dropped) continue;
+                result[n++] = state(r, tests);
+                if (tests == 0) break; //covers, the next rules are never reached
+            }
+            return Arrays.copyOf(result, n);
+        }
+
+        void ensure(int capacity) {
+            if (capacity > nodes.length) nodes = Arrays.copyOf(nodes, Math.max(capacity, nodes.length * 2));
+        }
+    }
+
+    private static final class StateKey {
+        final long[] state;
+        final int hash;
+
+        StateKey(long[] state) {
+            this.state = state;
+            this.hash = Arrays.hashCode(state);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof StateKey && Arrays.equals(state, ((StateKey) o).state);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Reports the DAG size of the rules learned from an ARFF file against the rule list size
+     * <p>
+     * usage: RuleDag file.arff (MeDRI | eDRI) [classifier options]
+     */
+    public static void main(String[] args) throws Exception {
+        Instances data = new Instances(new BufferedReader(new FileReader(args[0])));
+        data.setClassIndex(data.numAttributes() - 1);
+        String[] options = Arrays.copyOfRange(args, 2, args.length);
+
+        RuleSet rules;
+        if ("eDRI".equals(args[1])) {
+            eDRI classifier = new eDRI();
+            classifier.setOptions(options);
+            classifier.buildClassifier(data);
+            rules = classifier.getRules();
+        } else {
+            MeDRI classifier = new MeDRI();
+            classifier.setOptions(options);
+            classifier.buildClassifier(data);
+            rules = classifier.getRules();
+        }
+        int maxNodes = 1 << 20;
+        RuleDag dag = of(rules, maxNodes);
+
+        System.out.println("rules = " + rules.numRules() + ", tests = " + rules.numTests());
+        if (dag == null) {
+            System.out.println("No DAG: larger than " + maxNodes + " nodes or rules of more than "
+                    + MAX_TESTS + " tests");
+            return;
+        }
+        long pathTests = 0;
+        int[] cond = new int[data.numAttributes()];
+        for (int i = 0; i < data.numInstances(); i++) {
+            Instance inst = data.instance(i);
+            for (int att = 0; att < cond.length; att++) cond[att] = (int) inst.value(att);
+            pathTests += dag.pathLength(cond);
+        }
+        System.out.println("DAG nodes = " + dag.numNodes() + ", ints = " + dag.size());
+        System.out.println(String.format("avg. tests on the DAG path = %2.2f",
+                (double) pathTests / Math.max(1, data.numInstances())));
+    }
+}
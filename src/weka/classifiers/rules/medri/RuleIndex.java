@@ -0,0 +1,184 @@
+package weka.classifiers.rules.medri;
+
+import weka.core.Instance;
+
+/**
+ * Inverted index over an ordered rule list, giving the label of the first rule covering
+ * an instance, same as trying the rules in order.
+ * <p>
+ * Every rule is posted under its first test (anchor), postings of an item hold rule
+ * indexes in ascending order. Classifying reads, for each anchor attribute, the posting
+ * list of the instance value only, and stops a list as soon as it reaches the best rule
+ * found so far. Rules without tests cover everything and bound every list.
+ * <p>
+ * Instances are encoded once per call into a per thread buffer, so classifying allocates nothing.
+ */
+public class RuleIndex {
+
+    static final int NONE = Integer.MAX_VALUE;
+
+    private final int[] labels;
+    /**
+     * tests of rule r are testAtt/testVal[testStart[r], testStart[r + 1])
+     */
+    private final int[] testStart, testAtt, testVal;
+
+    /**
+     * attributes anchoring some rule
+     */
+    private final int[] anchorAtts;
+    /**
+     * postings of item (att, val) are postings[postingStart[itemBase[att] + val], postingStart[itemBase[att] + val + 1])
+     * for val in [0, numItems[att])
+     */
+    private final int[] itemBase, numItems, postingStart, postings;
+    /**
+     * first rule without tests, NONE if all rules have tests
+     */
+    private final int firstEmpty;
+    /**
+     * number of attributes read from the instances
+     */
+    private final int numAtts;
+
+    private final ThreadLocal<int[]> buffers = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[numAtts];
+        }
+    };
+
+    public RuleIndex(RuleSet rules) {
+        labels = rules.labels();
+        testStart = rules.testStart();
+        testAtt = rules.testAtt();
+        testVal = rules.testVal();
+        int numRules = labels.length;
+
+        int maxAtt = -1;
+        for (int att : testAtt) maxAtt = Math.max(maxAtt, att);
+        int empty = NONE;
+        for (int r = 0; r < numRules && empty == NONE; r++)
+            if (testStart[r] == testStart[r + 1]) empty = r;
+        firstEmpty = empty;
+        numAtts = maxAtt + 1;
+
+        //items of the anchor attributes
+        numItems = new int[numAtts];
+        for (int r = 0; r < numRules; r++) {
+            if (testStart[r] == testStart[r + 1]) continue;
+            int att = testAtt[testStart[r]];
+            numItems[att] = Math.max(numItems[att], testVal[testStart[r]] + 1);
+        }
+        itemBase = new int[numAtts];
+        int numAnchors = 0, items = 0;
+        for (int att = 0; att < numAtts; att++) {
+            itemBase[att] = items;
+            items += numItems[att];
+            if (numItems[att] > 0) numAnchors++;
+        }
+        anchorAtts = new int[numAnchors];
+        for (int att = 0, i = 0; att < numAtts; att++)
+            if (numItems[att] > 0) anchorAtts[i++] = att;
+
+        //postings, in rule order by construction
+        postingStart = new int[items + 1];
+        for (int r = 0; r < numRules; r++) {
+            if (testStart[r] == testStart[r + 1]) continue;
+            postingStart[item(r) + 1]++;
+        }
+        for (int i = 0; i < items; i++) postingStart[i + 1] += postingStart[i];
+        postings = new int[postingStart[items]];
+        int[] fill = new int[items];
+        for (int r = 0; r < numRules; r++) {
+            if (testStart[r] == testStart[r + 1]) continue;
+            int item = item(r);
+            postings[postingStart[item] + fill[item]++] = r;
+        }
+    }
+
+    private int item(int rule) {
+        int at = testStart[rule];
+        return itemBase[testAtt[at]] + testVal[at];
+    }
+
+    public int numRules() {
+        return labels.length;
+    }
+
+    /*
+     * Tables of the index, written as is by MappedRuleSet
+     */
+
+    int[] anchorAtts() {
+        return anchorAtts;
+    }
+
+    int[] itemBase() {
+        return itemBase;
+    }
+
+    int[] numItems() {
+        return numItems;
+    }
+
+    int[] postingStart() {
+        return postingStart;
+    }
+
+    int[] postings() {
+        return postings;
+    }
+
+    int firstEmpty() {
+        return firstEmpty;
+    }
+
+    /**
+     * @return label of the first rule covering inst, IRule.EMPTY if none does
+     */
+    public int classify(Instance inst) {
+        return classify(encode(inst));
+    }
+
+    /**
+     * @return items of the attributes tested by the rules, in a buffer reused by the calling thread
+     */
+    public int[] encode(Instance inst) {
+        int[] cond = buffers.get();
+        for (int att = 0; att < numAtts; att++) cond[att] = (int) inst.value(att);
+        return cond;
+    }
+
+    /**
+     * @param cond item of each attribute
+     * @return label of the first rule covering cond, IRule.EMPTY if none does
+     */
+    public int classify(int[] cond) {
+        int best = firstEmpty;
+        for (int att : anchorAtts) {
+            int val = cond[att];
+            if (val < 0 || val >= numItems[att]) continue;
+            int item = itemBase[att] + val;
+            for (int p = postingStart[item], end = postingStart[item + 1]; p < end; p++) {
+                int r = postings[p];
+                if (r >= best) break;
+                if (covers(r, cond)) {
+                    best = r;
+                    break;
+                }
+            }
+        }
+        return best == NONE ? IRule.EMPTY : labels[best];
+    }
+
+    /**
+     * @return true if cond passes the tests of the rule after its anchor
+     */
+    private boolean covers(int rule, int[] cond) {
+        for (int t = testStart[rule] + 1, end = testStart[rule + 1]; t < end; t++) {
+            if (cond[testAtt[t]] != testVal[t]) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,225 @@
+package weka.classifiers.rules.medri;
+
+import weka.classifiers.rules.edri.DRIRule;
+import weka.classifiers.rules.edri.DRITest;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Immutable ordered rule list packed into flat arrays: the tests of all rules follow each
+ * other in testAtt/testVal, rule r owns [testStart[r], testStart[r + 1]). Labels and
+ * counters are one array each, and all rules share one empty header of the training data.
+ * <p>
+ * This is the model MeDRI and eDRI keep, classify with and serialize, in place of one
+ * object per rule (and per test for eDRI). The scorers (RuleIndex, RuleBatch, RuleBitsets,
+ * RuleDag, RuleSetCompiler) are built from it.
+ */
+public class RuleSet implements Serializable {
+    static final long serialVersionUID = 424878435065750584L;
+
+    /**
+     * rule list without rules nor header, before any build
+     */
+    public static final RuleSet EMPTY = new RuleSet(null, new int[0], new int[1], new int[0], new int[0],
+            new int[0], new int[0]);
+
+    private final Instances header;
+    private final int[] labels;
+    /**
+     * tests of rule r are testAtt/testVal[testStart[r], testStart[r + 1])
+     */
+    private final int[] testStart, testAtt, testVal;
+    private final int[] correct, covers;
+
+    RuleSet(Instances header, int[] labels, int[] testStart, int[] testAtt, int[] testVal,
+            int[] correct, int[] covers) {
+        this.header = header;
+        this.labels = labels;
+        this.testStart = testStart;
+        this.testAtt = testAtt;
+        this.testVal = testVal;
+        this.correct = correct;
+        this.covers = covers;
+    }
+
+    /**
+     * @param header empty copy of the training data, kept as is
+     */
+    public static RuleSet ofIRules(List<IRule> rules, Instances header) {
+        int numRules = rules.size();
+        int numTests = 0;
+        for (IRule rule : rules) numTests += rule.getLenght();
+        int[] labels = new int[numRules], testStart = new int[numRules + 1];
+        int[] testAtt = new int[numTests], testVal = new int[numTests];
+        int[] correct = new int[numRules], covers = new int[numRules];
+        for (int r = 0; r < numRules; r++) {
+            IRule rule = rules.get(r);
+            labels[r] = rule.label;
+            correct[r] = rule.getCorrect();
+            covers[r] = rule.getCovers();
+            int[] atts = rule.getAttIndexes(), vals = rule.getAttValues();
+            System.arraycopy(atts, 0, testAtt, testStart[r], atts.length);
+            System.arraycopy(vals, 0, testVal, testStart[r], vals.length);
+            testStart[r + 1] = testStart[r] + atts.length;
+        }
+        return new RuleSet(header, labels, testStart, testAtt, testVal, correct, covers);
+    }
+
+    /**
+     * @param header empty copy of the training data, kept as is
+     */
+    public static RuleSet ofDRIRules(List<DRIRule> rules, Instances header) {
+        int numRules = rules.size();
+        int numTests = 0;
+        for (DRIRule rule : rules) numTests += rule.getLength();
+        int[] labels = new int[numRules], testStart = new int[numRules + 1];
+        int[] testAtt = new int[numTests], testVal = new int[numTests];
+        int[] correct = new int[numRules], covers = new int[numRules];
+        for (int r = 0; r < numRules; r++) {
+            DRIRule rule = rules.get(r);
+            labels[r] = rule.getClassification();
+            correct[r] = rule.m_correct;
+            covers[r] = rule.m_covers;
+            int at = testStart[r];
+            for (DRITest test = rule.m_text; test != null; test = test.m_next, at++) {
+                testAtt[at] = test.m_attr;
+                testVal[at] = test.m_val;
+            }
+            testStart[r + 1] = at;
+        }
+        return new RuleSet(header, labels, testStart, testAtt, testVal, correct, covers);
+    }
+
+    /**
+     * @return empty copy of the training data, shared by all the rules
+     */
+    public Instances header() {
+        return header;
+    }
+
+    public int numRules() {
+        return labels.length;
+    }
+
+    public int numTests() {
+        return testAtt.length;
+    }
+
+    public int label(int rule) {
+        return labels[rule];
+    }
+
+    public int length(int rule) {
+        return testStart[rule + 1] - testStart[rule];
+    }
+
+    /**
+     * @return attribute of test t of the rule, t in [0, length(rule))
+     */
+    public int testAtt(int rule, int t) {
+        return testAtt[testStart[rule] + t];
+    }
+
+    /**
+     * @return item of test t of the rule, t in [0, length(rule))
+     */
+    public int testVal(int rule, int t) {
+        return testVal[testStart[rule] + t];
+    }
+
+    public int correct(int rule) {
+        return correct[rule];
+    }
+
+    public int covers(int rule) {
+        return covers[rule];
+    }
+
+    public int errors(int rule) {
+        return covers[rule] - correct[rule];
+    }
+
+    public double confidence(int rule) {
+        return (double) correct[rule] / (double) covers[rule];
+    }
+
+    public double lengthWeighted(int rule) {
+        return (double) correct[rule] * length(rule);
+    }
+
+    /*
+     * Flat arrays shared with the scorers of this package, never modified
+     */
+
+    int[] labels() {
+        return labels;
+    }
+
+    int[] testStart() {
+        return testStart;
+    }
+
+    int[] testAtt() {
+        return testAtt;
+    }
+
+    int[] testVal() {
+        return testVal;
+    }
+
+    int[] correct() {
+        return correct;
+    }
+
+    int[] covers() {
+        return covers;
+    }
+
+    /**
+     * Tries the rules in order
+     *
+     * @return label of the first rule covering inst, IRule.EMPTY if none does
+     */
+    public int classify(Instance inst) {
+        for (int r = 0; r < labels.length; r++) {
+            int t = testStart[r], end = testStart[r + 1];
+            while (t < end && (int) inst.value(testAtt[t]) == testVal[t]) t++;
+            if (t == end) return labels[r];
+        }
+        return IRule.EMPTY;
+    }
+
+    /**
+     * @return rule r as an IRule
+     */
+    public IRule toIRule(int rule) {
+        IRule result = new IRule(labels[rule], correct[rule], covers[rule]);
+        for (int t = testStart[rule]; t < testStart[rule + 1]; t++) result.addTest(testAtt[t], testVal[t]);
+        return result;
+    }
+
+    /**
+     * Same text as IRule.toString(data, maxDigits)
+     */
+    public String toString(int rule, Instances data, int maxDigits) {
+        String pattern = "( " + MedriUtils.formatIntPattern(maxDigits) + " , %.2f ) ";
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(pattern, correct[rule], confidence(rule)));
+        sb.append("Label = " + data.classAttribute().value(labels[rule]));
+        int start = testStart[rule], end = testStart[rule + 1];
+        if (end > start) {
+            sb.append(" when \t");
+            for (int t = start; t < end; t++) {
+                Attribute att = data.attribute(testAtt[t]);
+                if (t > start) sb.append(" , ");
+                sb.append(att.name() + " = " + att.value(testVal[t]));
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,257 @@
+package weka.classifiers.rules.medri;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import weka.classifiers.rules.MeDRI;
+import weka.core.Instances;
+
+import javax.tools.*;
+import java.io.*;
+import java.net.URI;
+import java.net.URL;
+import java.security.CodeSource;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Turns an ordered rule list into a class whose tests are unrolled into code, so the JIT
+ * compiles the rules themselves instead of the loops interpreting them.
+ * <p>
+ * The code follows {@link RuleIndex}: a switch on the item of each anchor attribute (first
+ * test of a rule) jumps to the if chain of the rules posted under that item, which stops
+ * at the best rule found so far. Chains are split into methods whose estimated bytecode
+ * stays below METHOD_BYTES, under the size HotSpot still compiles (HugeMethodLimit, 8000
+ * bytes) and far from the 64 KB limit of a method.
+ * <p>
+ * The source is generated, compiled in memory with the system Java compiler and loaded by
+ * its own class loader. Without a compiler (running on a JRE) compile() returns null
+ * and the caller keeps interpreting.
+ */
+public class RuleSetCompiler {
+
+    static Logger logger = LoggerFactory.getLogger(RuleSetCompiler.class);
+
+    /**
+     * Estimated bytecode budget of one chain method
+     */
+    static final int METHOD_BYTES = 7000;
+    /**
+     * Estimated bytecode of one rule: the best guard and the return, plus one compare per test
+     */
+    static final int RULE_BYTES = 15, TEST_BYTES = 10;
+    private static final AtomicInteger ids = new AtomicInteger();
+
+    /**
+     * @return compiled rules, null if they can not be compiled here
+     */
+    public static CompiledRules compile(RuleSet rules) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            logger.warn("No Java compiler available, rules are interpreted");
+            return null;
+        }
+        String name = "GeneratedRules" + ids.incrementAndGet();
+        try {
+            Map<String, byte[]> classes = compile(compiler, name, source(name, rules));
+            if (classes == null) return null;
+            CompiledRules result = (CompiledRules) new MemoryClassLoader(classes).loadClass(name).getDeclaredConstructor().newInstance();
+            result.setLabels(rules.labels());
+            return result;
+        } catch (Exception | LinkageError e) {
+            logger.warn("Rules can not be compiled, they are interpreted: {}", e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * @return java source of class name extending CompiledRules
+     */
+    static String source(String name, RuleSet rules) {
+        //rules by first test (anchor), in rule order, up to the first rule without tests
+        int firstEmpty = Integer.MAX_VALUE;
+        SortedMap<Integer, SortedMap<Integer, List<Integer>>> anchors = new TreeMap<>();
+        for (int r = 0; r < rules.numRules(); r++) {
+            if (rules.length(r) == 0) {
+                firstEmpty = r;
+                break;
+            }
+            int att = rules.testAtt(r, 0), val = rules.testVal(r, 0);
+            if (!anchors.containsKey(att)) anchors.put(att, new TreeMap<Integer, List<Integer>>());
+            SortedMap<Integer, List<Integer>> items = anchors.get(att);
+            if (!items.containsKey(val)) items.put(val, new ArrayList<Integer>());
+            items.get(val).add(r);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("public final class ").append(name)
+                .append(" extends ").append(CompiledRules.class.getName()).append(" {\n");
+        sb.append("    protected int firstRule(int[] c) {\n");
+        sb.append("        int best = ").append(firstEmpty).append(";\n");
+        for (int att : anchors.keySet())
+            sb.append("        best = a").append(att).append("(c, best);\n");
+        sb.append("        return best == ").append(Integer.MAX_VALUE).append(" ? -1 : best;\n");
+        sb.append("    }\n");
+
+        for (Map.Entry<Integer, SortedMap<Integer, List<Integer>>> anchor : anchors.entrySet()) {
+            int att = anchor.getKey();
+            sb.append("    private static int a").append(att).append("(int[] c, int best) {\n");
+            sb.append("        switch (c[").append(att).append("]) {\n");
+            for (int val : anchor.getValue().keySet()) {
+                sb.append("            case ").append(val).append(": return a").append(att).append('v').append(val)
+                        .append("_0(c, best);\n");
+            }
+            sb.append("            default: return best;\n        }\n    }\n");
+
+            for (Map.Entry<Integer, List<Integer>> item : anchor.getValue().entrySet()) {
+                String method = "a" + att + "v" + item.getKey() + "_";
+                List<Integer> posted = item.getValue();
+                int chunk = 0, bytes = 0;
+                boolean covered = false;
+                sb.append("    private static int ").append(method).append(chunk).append("(int[] c, int best) {\n");
+                for (int r : posted) {
+                    int length = rules.length(r);
+                    int cost = RULE_BYTES + TEST_BYTES * (length - 1);
+                    if (bytes > 0 && bytes + cost > METHOD_BYTES) {
+                        //the next rules go to the next method of the chain
+                        chunk++;
+                        bytes = 0;
+                        sb.append("        return ").append(method).append(chunk).append("(c, best);\n    }\n");
+                        sb.append("    private static int ").append(method).append(chunk).append("(int[] c, int best) {\n");
+                    }
+                    bytes += cost;
+                    sb.append("        if (best <= ").append(r).append(") return best;\n");
+                    if (length == 1) {
+                        //the anchor alone, the next rules are never reached
+                        sb.append("        return ").append(r).append(";\n");
+                        covered = true;
+                        break;
+                    }
+                    sb.append("        if (");
+                    for (int t = 1; t < length; t++) {
+                        if (t > 1) sb.append(" && ");
+                        sb.append("c[").append(rules.testAtt(r, t)).append("] == ").append(rules.testVal(r, t));
+                    }
+                    sb.append(") return ").append(r).append(";\n");
+                }
+                if (!covered) sb.append("        return best;\n");
+                sb.append("    }\n");
+            }
+        }
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    /**
+     * @return bytes of the compiled classes by name, null if compiling failed
+     */
+    private static Map<String, byte[]> compile(JavaCompiler compiler, String name, final String source)
+            throws IOException {
+        final Map<String, ByteArrayOutputStream> outputs = new HashMap<>();
+        StandardJavaFileManager standard = compiler.getStandardFileManager(null, null, null);
+        JavaFileManager fileManager = new ForwardingJavaFileManager<JavaFileManager>(standard) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, final String className,
+                                                       JavaFileObject.Kind kind, FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("mem:///" + className.replace('.', '/') + kind.extension), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        ByteArrayOutputStream out = new ByteArrayOutputStream();
+                        outputs.put(className, out);
+                        return out;
+                    }
+                };
+            }
+        };
+        JavaFileObject file = new SimpleJavaFileObject(URI.create("string:///" + name + ".java"),
+                JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+
+        StringWriter diagnostics = new StringWriter();
+        List<String> options = Arrays.asList("-classpath", classPath(), "-g:none");
+        try {
+            Boolean ok = compiler.getTask(diagnostics, fileManager, null, options, null,
+                    Collections.singletonList(file)).call();
+            if (!Boolean.TRUE.equals(ok)) {
+                logger.warn("Rules can not be compiled, they are interpreted: {}", diagnostics);
+                return null;
+            }
+        } finally {
+            fileManager.close();
+        }
+
+        Map<String, byte[]> result = new HashMap<>();
+        for (Map.Entry<String, ByteArrayOutputStream> e : outputs.entrySet())
+            result.put(e.getKey(), e.getValue().toByteArray());
+        return result;
+    }
+
+    /**
+     * @return class path of the running application, plus the location of CompiledRules
+     */
+    private static String classPath() {
+        String result = System.getProperty("java.class.path", "");
+        CodeSource source = CompiledRules.class.getProtectionDomain().getCodeSource();
+        URL location = source == null ? null : source.getLocation();
+        if (location != null && "file".equals(location.getProtocol())) {
+            try {
+                result = new File(location.toURI()).getPath() + File.pathSeparator + result;
+            } catch (Exception e) {
+                logger.debug("Can not locate CompiledRules {}", location);
+            }
+        }
+        return result;
+    }
+
+    private static class MemoryClassLoader extends ClassLoader {
+        private final Map<String, byte[]> classes;
+
+        MemoryClassLoader(Map<String, byte[]> classes) {
+            super(CompiledRules.class.getClassLoader());
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] bytes = classes.get(name);
+            if (bytes == null) throw new ClassNotFoundException(name);
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Times classifyInstance of a MeDRI model with interpreted and with compiled rules
+     * <p>
+     * usage: RuleSetCompiler file.arff [MeDRI options]
+     */
+    public static void main(String[] args) throws Exception {
+        Instances data = new Instances(new BufferedReader(new FileReader(args[0])));
+        data.setClassIndex(data.numAttributes() - 1);
+        String[] options = Arrays.copyOfRange(args, 1, args.length);
+
+        MeDRI classifier = new MeDRI();
+        classifier.setOptions(options);
+        classifier.buildClassifier(data);
+        System.out.println("rules = " + classifier.getRules().numRules());
+
+        for (boolean compiled : new boolean[]{false, true, false, true}) {
+            classifier.setCompileRules(compiled);
+            classifier.classifyInstance(data.instance(0)); //compiles, not timed
+            double sum = 0;
+            long start = System.nanoTime();
+            for (int rep = 0; rep < 10; rep++) {
+                for (int i = 0; i < data.numInstances(); i++) {
+                    double cls = classifier.classifyInstance(data.instance(i));
+                    if (!Double.isNaN(cls)) sum += cls;
+                }
+            }
+            long time = System.nanoTime() - start;
+            System.out.println(String.format("%s : %,d ns per instance (%s)",
+                    compiled ? "compiled" : "interpreted",
+                    time / (10L * Math.max(1, data.numInstances())), sum));
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package weka.classifiers.rules.medri;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * eDRI growing one rule per class at the same time: every pass over the lines feeds
+ * the count cubes of all the growing rules, so the number of passes is the longest
+ * class run of calcStepEDRI steps instead of their sum over classes.
+ * <p>
+ * Each line holds, per class, a remaining bit and an entry bit (64 classes per long).
+ * Rule decisions taken after a pass (keep, commit, begin a new rule) are replayed on the
+ * bits while the next pass reads the lines, giving the same rules, in the same order,
+ * as MedriUtils.buildClassifierEDRI.
+ */
+public class SharedScanEDRI {
+
+    static Logger logger = LoggerFactory.getLogger(SharedScanEDRI.class);
+
+    private final int[] iattrs;
+    private final ILines lineData;
+    private final int minFreq;
+    private final double minConfidence;
+
+    private final int numLabels, groups;
+    /**
+     * [line * groups + group] bits of the classes still having the line, and of the
+     * classes whose current rule covers it
+     */
+    private final long[] remaining, entry;
+    private final Grower[] growers;
+    /**
+     * active[0, numActive) lines covered by the rule of some class, the only ones a pass
+     * beginning no rule needs
+     */
+    private final int[] active;
+    private int numActive;
+    private long scannedInstances = 0L;
+    private int passes = 0;
+
+    /**
+     * State of the class whose rules are grown, with the operations to replay on the next pass
+     */
+    private static final class Grower {
+        final int label;
+        final List<IRule> rules = new ArrayList<>();
+        int clsCounter;
+        /**
+         * number of remaining instances
+         */
+        int size;
+        boolean done;
+
+        IRule rule;
+        Set<Integer> avAtts;
+        int[][][] counts;
+        int[] countAtts;
+
+        int narrowAtt = MaxIndex.EMPTY, narrowVal;
+        /**
+         * commit: remove the entry lines from the remaining ones, drop: forget the entry lines
+         */
+        boolean commit, drop, begin, count;
+
+        Grower(int label) {
+            this.label = label;
+        }
+    }
+
+    private SharedScanEDRI(int[] iattrs, ILines lineData, int minFreq, double minConfidence) {
+        this.iattrs = iattrs;
+        this.lineData = lineData;
+        this.minFreq = minFreq;
+        this.minConfidence = minConfidence;
+        this.numLabels = lineData.numLabels;
+        this.groups = (numLabels + 63) >>> 6;
+        this.growers = new Grower[numLabels];
+
+        int numLines = lineData.numLines();
+        this.remaining = new long[numLines * groups];
+        this.entry = new long[numLines * groups];
+        this.active = new int[numLines];
+        for (int grp = 0; grp < groups; grp++) {
+            int bits = Math.min(64, numLabels - (grp << 6));
+            long all = bits == 64 ? -1L : (1L << bits) - 1;
+            for (int line = 0; line < numLines; line++) remaining[line * groups + grp] = all;
+        }
+    }
+
+    /**
+     * Same contract and rules as MedriUtils.buildClassifierEDRI, reading the lines once per step
+     * for all classes
+     */
+    public static MeDRIResult buildClassifierEDRI(int[] iattrs, int[] labelsCount, ILines lineData,
+                                                  int minFreq, double minConfidence, boolean addDefaultRule) {
+        return new SharedScanEDRI(iattrs, lineData, minFreq, minConfidence).build(labelsCount, addDefaultRule);
+    }
+
+    private MeDRIResult build(int[] labelsCount, boolean addDefaultRule) {
+        for (int cls = 0; cls < numLabels; cls++) {
+            Grower g = new Grower(cls);
+            g.clsCounter = labelsCount[cls];
+            g.size = lineData.numInstances();
+            growers[cls] = g;
+            if (g.clsCounter > 0) startRule(g);
+            else g.done = true;
+        }
+
+        while (anyCount()) {
+            //new rules wait until no rule is half grown, then one pass over all lines begins them all
+            boolean full = true;
+            for (Grower g : growers) full &= !g.count || g.begin;
+            pass(full, MaxIndex.EMPTY, null);
+            for (Grower g : growers) {
+                g.narrowAtt = MaxIndex.EMPTY;
+                g.commit = g.drop = false;
+                if (g.count && (full || !g.begin)) {
+                    g.begin = g.count = false;
+                    step(g);
+                }
+            }
+        }
+
+        List<IRule> rules = new ArrayList<>();
+        Grower last = null;
+        for (Grower g : growers) {
+            rules.addAll(g.rules);
+            if (g.rules.size() > 0) last = g;
+        }
+
+        if (addDefaultRule && last != null && last.size > 0) {
+            //replay the last commits, then count the labels the last class left
+            int[] freqs = new int[numLabels];
+            pass(true, last.label, freqs);
+            rules.add(MedriUtils.getDefaultRule(freqs));
+        }
+        logger.debug("shared scan passes = {}", passes);
+
+        assert rules.size() > 0;
+        MeDRIResult result = new MeDRIResult();
+        result.setRules(rules);
+        result.setScannedInstances(scannedInstances);
+        return result;
+    }
+
+    private boolean anyCount() {
+        for (Grower g : growers) if (g.count) return true;
+        return false;
+    }
+
+    /**
+     * Starts a new rule of the class, the next pass resets its entry to the remaining lines and counts it
+     */
+    private void startRule(Grower g) {
+        if (g.size < minFreq) {
+            g.done = true;
+            return;
+        }
+        g.rule = new IRule(g.label);
+        g.avAtts = new LinkedHashSet<>();
+        for (int i = 0; i < lineData.labelIndex; i++) g.avAtts.add(i);
+        g.begin = true;
+        expectCount(g);
+    }
+
+    private void expectCount(Grower g) {
+        g.countAtts = new int[g.avAtts.size()];
+        int i = 0;
+        for (int att : g.avAtts) g.countAtts[i++] = att;
+        g.counts = MedriUtils.newCountCube(iattrs, g.countAtts);
+        g.count = true;
+    }
+
+    /**
+     * One iteration of the calcStepEDRI loop, over the counts of the last pass
+     */
+    private void step(Grower g) {
+        MaxIndex mx = MaxIndex.ofSupportConfidence(g.counts, g.label, minFreq, minConfidence);
+        g.counts = null;
+        if (mx.getLabel() == MaxIndex.EMPTY) {
+            if (g.rule.getLenght() > 0) {
+                endRule(g);
+            } else {
+                g.drop = true;
+                g.done = true;
+            }
+            return;
+        }
+
+        g.avAtts.remove(mx.getBestAtt());
+        g.rule.addTest(mx.getBestAtt(), mx.getBestItem());
+        g.rule.updateWith(mx);
+
+        g.narrowAtt = mx.getBestAtt();
+        g.narrowVal = mx.getBestItem();
+        boolean grow = g.rule.getErrors() > 0 && g.avAtts.size() > 0 && g.rule.getCorrect() >= minFreq;
+        if (grow) expectCount(g);
+        else endRule(g);
+    }
+
+    private void endRule(Grower g) {
+        logger.trace("rule {}", g.rule);
+        g.rules.add(g.rule);
+        g.commit = g.drop = true;
+        g.size -= g.rule.getCovers();
+        g.clsCounter -= g.rule.getCorrect();
+        g.rule = null;
+        g.avAtts = null;
+        if (g.clsCounter > 0) startRule(g);
+        else g.done = true;
+    }
+
+    /**
+     * Reads the lines once, replaying for every class its pending keep, commit, drop and begin,
+     * then adding the entry lines to the count cubes of the counting classes
+     *
+     * @param full  read all lines and begin the new rules, else read the active lines only
+     * @param tally class whose remaining labels are added to freqs after the replay, or EMPTY
+     */
+    private void pass(boolean full, int tally, int[] freqs) {
+        long[] narrowMask = new long[groups], commitMask = new long[groups], dropMask = new long[groups],
+                beginMask = new long[groups], countMask = new long[groups];
+        for (Grower g : growers) {
+            long bit = 1L << g.label;
+            int grp = g.label >>> 6;
+            if (g.narrowAtt != MaxIndex.EMPTY) narrowMask[grp] |= bit;
+            if (g.commit) commitMask[grp] |= bit;
+            if (g.drop) dropMask[grp] |= bit;
+            if (g.begin && !full) continue;
+            if (g.begin) beginMask[grp] |= bit;
+            if (g.count) countMask[grp] |= bit;
+        }
+
+        int numLines = full ? lineData.numLines() : numActive;
+        int[] weights = lineData.weights();
+        IColumn labels = lineData.labels();
+        int[] values = new int[lineData.labelIndex];
+        int nextActive = 0;
+        for (int i = 0; i < numLines; i++) {
+            int line = full ? i : active[i];
+            boolean read = false, covered = false;
+            for (int grp = 0; grp < groups; grp++) {
+                int at = line * groups + grp;
+                long rem = remaining[at], ent = entry[at];
+
+                for (long m = ent & narrowMask[grp]; m != 0; m &= m - 1) {
+                    int b = Long.numberOfTrailingZeros(m);
+                    Grower g = growers[(grp << 6) + b];
+                    if (lineData.get(line, g.narrowAtt) != g.narrowVal) ent &= ~(1L << b);
+                }
+                rem &= ~(ent & commitMask[grp]);
+                ent &= ~dropMask[grp];
+                ent = (ent & ~beginMask[grp]) | (rem & beginMask[grp]);
+                remaining[at] = rem;
+                entry[at] = ent;
+                covered |= ent != 0;
+
+                long m = ent & countMask[grp];
+                if (m != 0 && !read) {
+                    for (int att = 0; att < values.length; att++) values[att] = lineData.get(line, att);
+                    read = true;
+                }
+                for (; m != 0; m &= m - 1) {
+                    Grower g = growers[(grp << 6) + Long.numberOfTrailingZeros(m)];
+                    if (weights == null) {
+                        int lbl = labels.get(line);
+                        for (int att : g.countAtts) g.counts[att][values[att]][lbl]++;
+                    } else {
+                        int base = line * numLabels;
+                        for (int att : g.countAtts) {
+                            int[] itemCounts = g.counts[att][values[att]];
+                            for (int lbl = 0; lbl < numLabels; lbl++) itemCounts[lbl] += weights[base + lbl];
+                        }
+                    }
+                }
+            }
+            if (covered) active[nextActive++] = line;
+            if (tally != MaxIndex.EMPTY && (remaining[line * groups + (tally >>> 6)] & (1L << tally)) != 0)
+                lineData.addLabelsCount(line, freqs);
+        }
+        numActive = nextActive;
+        scannedInstances += numLines;
+        passes++;
+    }
+}